@@ -43,4 +43,56 @@ public interface Constants {
      */
     String PAGE_ID = "pax.wicket.pageid";
 
+    /**
+     * Framework property name for the number of threads scanning bundles in parallel; defaults to the number of
+     * available processors.
+     */
+    String SCAN_THREADS = "pax.wicket.scan.threads";
+
+    /**
+     * Context parameter (see {@link #CONTEXT_PARAMS}) selecting how pages of an application are serialized; either
+     * {@link #SERIALIZER_JAVA} (default) or {@link #SERIALIZER_COMPACT}.
+     */
+    String SERIALIZER = "pax.wicket.serializer";
+
+    /**
+     * Plain java serialization (with the replacement of bundles and bundle contexts).
+     */
+    String SERIALIZER_JAVA = "java";
+
+    /**
+     * Java serialization writing classes only by name and serial version uid instead of full class descriptors;
+     * classes are resolved through the per application class cache.
+     */
+    String SERIALIZER_COMPACT = "compact";
+
+    /**
+     * Context parameter (see {@link #CONTEXT_PARAMS}) with the deflate level (1 fastest to 9 best) used to compress
+     * the serialized pages of an application; pages are stored uncompressed if not set or set to 0.
+     */
+    String SERIALIZER_COMPRESSION = "pax.wicket.serializer.compression";
+
+    /**
+     * Context parameter (see {@link #CONTEXT_PARAMS}) selecting where the pages of an application are stored; either
+     * {@link #PAGE_STORE_DISK} (default) or {@link #PAGE_STORE_MAPPED}.
+     */
+    String PAGE_STORE = "pax.wicket.pagestore";
+
+    /**
+     * The default wicket disk store.
+     */
+    String PAGE_STORE_DISK = "disk";
+
+    /**
+     * Memory mapped segment files in the temporary folder of pax-wicket.
+     */
+    String PAGE_STORE_MAPPED = "mapped";
+
+    /**
+     * Context parameter (see {@link #CONTEXT_PARAMS}) with the number of pages that may wait to be written to the page
+     * store by a background thread of the application; the wicket default asynchronous store is used if not set or
+     * set to 0.
+     */
+    String PAGE_STORE_WRITE_BEHIND = "pax.wicket.pagestore.writebehind";
+
 }
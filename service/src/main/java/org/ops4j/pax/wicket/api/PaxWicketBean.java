@@ -44,6 +44,12 @@ public @interface PaxWicketBean {
      * Will always (and only) query the service registry for services to inject
      */
     public static final String INJECTION_SOURCE_SERVICE_REGISTRY = "service-registry";
+    /**
+     * Like {@link #INJECTION_SOURCE_SERVICE_REGISTRY}, but the service is kept while it is registered instead of being
+     * fetched and released around every call. The best ranked matching service is used and rebound automatically if
+     * it goes away or the ranking changes.
+     */
+    public static final String INJECTION_SOURCE_SERVICE_REGISTRY_STICKY = "service-registry-sticky";
     /**
      * Will scan for blueprint and spring context; if none or both are found INJECTION_SOURCE_NULL is used.
      */
@@ -0,0 +1,31 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.api;
+
+/**
+ * Optional extension of the {@link PaxWicketInjector} for injectors which are able to tell up front if they are
+ * responsible for a class. Injectors implementing this interface are only asked to inject a level of a class if
+ * {@link #canInject(Class)} returns <code>true</code>; all other injectors are still asked blindly and are expected to
+ * throw a {@link NoBeanAvailableForInjectionException} if they can't handle the class.
+ */
+public interface SelectivePaxWicketInjector extends PaxWicketInjector {
+
+    /**
+     * @return <code>true</code> if {@link #inject(Object, Class)} is able to handle the given level of an object
+     */
+    boolean canInject(Class<?> toHandle);
+
+}
@@ -18,10 +18,17 @@ package org.ops4j.pax.wicket.internal;
 import org.ops4j.pax.wicket.api.WebApplicationFactory;
 import org.ops4j.pax.wicket.internal.extender.BundleDelegatingExtensionTracker;
 import org.ops4j.pax.wicket.internal.extender.PaxWicketBundleListener;
+import org.ops4j.pax.wicket.internal.injection.ContainerHandles;
+import org.ops4j.pax.wicket.internal.injection.LocatorDefinition;
+import org.ops4j.pax.wicket.internal.injection.registry.StickyServiceTrackers;
+import org.ops4j.pax.wicket.internal.util.BundleClassIndex;
 import org.ops4j.pax.wicket.internal.util.BundleTrackerAggregator;
+import org.ops4j.pax.wicket.internal.util.ResolvedClassCache;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.util.tracker.BundleTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +50,8 @@ public final class Activator implements BundleActivator {
 
     private BundleTracker bundleTracker;
 
+    private BundleListener classIndexListener;
+
     @SuppressWarnings("unchecked")
     public final void start(BundleContext context) throws Exception {
         if (LOGGER.isDebugEnabled()) {
@@ -56,6 +65,10 @@ public final class Activator implements BundleActivator {
 
         LOGGER.debug("Set object stream factory");
 
+        classIndexListener = new ClassIndexListener();
+        context.addBundleListener(classIndexListener);
+        BundleClassIndex.removeUninstalled(context.getBundles());
+
         httpTracker = new HttpTracker(context);
         httpTracker.open();
 
@@ -64,6 +77,7 @@ public final class Activator implements BundleActivator {
 
         PaxWicketBundleListener paxWicketBundleListener = new PaxWicketBundleListener(bundleDelegatingExtensionTracker);
 
+        paxWicketBundleListener.scanActiveBundles(context.getBundles());
         bundleTracker = new BundleTracker(context, Bundle.ACTIVE, paxWicketBundleListener);
         bundleTracker.open();
 
@@ -87,15 +101,23 @@ public final class Activator implements BundleActivator {
     }
 
     public final void stop(BundleContext context) throws Exception {
+        context.removeBundleListener(classIndexListener);
         bundleTracker.close();
         bundleTrackerAggregator.close();
         httpTracker.close();
+        bundleDelegatingExtensionTracker.close();
 
         httpTracker = null;
         applicationFactoryTracker = null;
         bundleDelegatingExtensionTracker = null;
         bundleTrackerAggregator = null;
+        classIndexListener = null;
         bundleContext = null;
+        BundleClassIndex.clear();
+        StickyServiceTrackers.closeAll();
+        ContainerHandles.closeAll();
+        LocatorDefinition.clear();
+        ResolvedClassCache.invalidateAll();
 
         if (LOGGER.isDebugEnabled()) {
             Bundle bundle = context.getBundle();
@@ -105,4 +127,18 @@ public final class Activator implements BundleActivator {
         }
     }
 
+    /**
+     * Keeps the {@link BundleClassIndex} from growing with every update or reinstallation of a bundle.
+     */
+    private static final class ClassIndexListener implements BundleListener {
+
+        public void bundleChanged(BundleEvent event) {
+            if (event.getType() == BundleEvent.UNINSTALLED) {
+                BundleClassIndex.remove(event.getBundle());
+            } else if (event.getType() == BundleEvent.UNRESOLVED) {
+                BundleClassIndex.evict(event.getBundle());
+            }
+        }
+    }
+
 }
@@ -17,6 +17,7 @@ package org.ops4j.pax.wicket.internal;
 
 import org.apache.wicket.application.IClassResolver;
 import org.ops4j.pax.wicket.api.Constants;
+import org.ops4j.pax.wicket.internal.util.BundleClassIndex;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
@@ -26,18 +27,39 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
- * This class represents an extended class loader automatically trying to load from all bundles added to it.
+ * This class represents an extended class loader automatically trying to load from all bundles added to it. To avoid
+ * asking every bundle for every class an index of the packages contained in each bundle (exported and private ones) is
+ * maintained and a class is loaded from the bundles owning its package first. All other bundles are searched for the
+ * class if its package is not found in any bundle, or if none of its owners is able to load it (e.g. because another
+ * bundle contains the package in an embedded jar).
  */
-public class BundleDelegatingClassResolver implements IClassResolver, InternalBundleDelegationProvider {
+public class BundleDelegatingClassResolver implements IClassResolver,
+        InternalBundleDelegationProvider<Set<String>> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleDelegatingClassResolver.class);
 
+    /**
+     * bnd header listing the packages of a bundle which are not exported
+     */
+    private static final String PRIVATE_PACKAGE = "Private-Package";
+
     private final String applicationName;
     private final BundleContext paxWicketBundleContext;
-    private Map<String, Bundle> bundles = new HashMap<String, Bundle>();
+    private Map<String, Bundle> bundles = new ConcurrentHashMap<String, Bundle>();
+    /**
+     * package name to the symbolic names of all bundles containing the package
+     */
+    private Map<String, Set<String>> packageIndex = new ConcurrentHashMap<String, Set<String>>();
+    /**
+     * symbolic name to the packages registered for the bundle in the {@link #packageIndex}
+     */
+    private Map<String, Set<String>> bundlePackages = new HashMap<String, Set<String>>();
     private ServiceRegistration classResolverRegistration;
+    private Dictionary<String, String> properties;
 
     public BundleDelegatingClassResolver(BundleContext paxWicketBundleContext, String applicationName) {
         this.paxWicketBundleContext = paxWicketBundleContext;
@@ -52,7 +74,7 @@ public class BundleDelegatingClassResolver implements IClassResolver, InternalBu
         if (classResolverRegistration != null) {
             throw new IllegalStateException("Service is already registered");
         }
-        Dictionary<String, String> properties = new Hashtable<String, String>();
+        properties = new Hashtable<String, String>();
         properties.put(Constants.APPLICATION_NAME, applicationName);
         classResolverRegistration =
             paxWicketBundleContext.registerService(IClassResolver.class.getName(), this, properties);
@@ -67,12 +89,23 @@ public class BundleDelegatingClassResolver implements IClassResolver, InternalBu
     }
 
     public void addBundle(Bundle bundle) {
+        addBundle(bundle, analyseBundle(bundle));
+    }
+
+    public Set<String> analyseBundle(Bundle bundle) {
+        return collectPackages(bundle);
+    }
+
+    public void addBundle(Bundle bundle, Set<String> packages) {
         if (classResolverRegistration == null) {
             throw new IllegalStateException("The service is stoped and no more bundles could be added");
         }
         synchronized (bundles) {
+            unindexBundle(bundle.getSymbolicName());
             bundles.put(bundle.getSymbolicName(), bundle);
+            indexBundle(bundle.getSymbolicName(), packages);
         }
+        notifyBundlesChanged();
     }
 
     public void removeBundle(Bundle bundle) {
@@ -81,46 +114,162 @@ public class BundleDelegatingClassResolver implements IClassResolver, InternalBu
         }
         synchronized (bundles) {
             bundles.remove(bundle.getSymbolicName());
+            unindexBundle(bundle.getSymbolicName());
+        }
+        notifyBundlesChanged();
+    }
+
+    /**
+     * Fires a modified event for the registration, telling the {@link DelegatingClassResolver} to drop what it has
+     * cached about this resolver.
+     */
+    private void notifyBundlesChanged() {
+        try {
+            classResolverRegistration.setProperties(properties);
+        } catch (IllegalStateException e) {
+            LOGGER.trace("Class resolver for application {} had been unregistered meanwhile", applicationName);
+        }
+    }
+
+    private void indexBundle(String symbolicName, Set<String> packages) {
+        for (String packageName : packages) {
+            Set<String> owners = packageIndex.get(packageName);
+            if (owners == null) {
+                owners = new CopyOnWriteArraySet<String>();
+                packageIndex.put(packageName, owners);
+            }
+            owners.add(symbolicName);
+        }
+        bundlePackages.put(symbolicName, packages);
+    }
+
+    private void unindexBundle(String symbolicName) {
+        Set<String> packages = bundlePackages.remove(symbolicName);
+        if (packages == null) {
+            return;
+        }
+        for (String packageName : packages) {
+            Set<String> owners = packageIndex.get(packageName);
+            if (owners == null) {
+                continue;
+            }
+            owners.remove(symbolicName);
+            if (owners.isEmpty()) {
+                packageIndex.remove(packageName);
+            }
+        }
+    }
+
+    /**
+     * Collects the packages exported by the bundle, the private packages declared by bnd and the packages of all class
+     * entries of the bundle.
+     */
+    private static Set<String> collectPackages(Bundle bundle) {
+        Set<String> packages = new HashSet<String>();
+        Dictionary<?, ?> headers = bundle.getHeaders();
+        addPackagesOfHeader(packages, (String) headers.get(org.osgi.framework.Constants.EXPORT_PACKAGE));
+        addPackagesOfHeader(packages, (String) headers.get(PRIVATE_PACKAGE));
+        for (String path : BundleClassIndex.getClassEntries(bundle)) {
+            int lastSlash = path.lastIndexOf('/');
+            if (lastSlash <= 0) {
+                continue;
+            }
+            packages.add(path.substring(0, lastSlash).replace('/', '.'));
+        }
+        return packages;
+    }
+
+    /**
+     * Adds the package names of an OSGi manifest header like <code>a.b;version="[1,2)",c.d;uses:="a.b,e.f"</code>.
+     */
+    private static void addPackagesOfHeader(Set<String> packages, String header) {
+        if (header == null) {
+            return;
+        }
+        boolean quoted = false;
+        boolean inAttributes = false;
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i <= header.length(); i++) {
+            char c = i < header.length() ? header.charAt(i) : ',';
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (quoted) {
+                continue;
+            } else if (c == ',' || c == ';') {
+                String packageName = name.toString().trim();
+                if (!inAttributes && packageName.length() != 0 && packageName.indexOf('=') == -1) {
+                    packages.add(packageName);
+                }
+                name.setLength(0);
+                if (c == ',') {
+                    inAttributes = false;
+                } else if (packageName.indexOf('=') != -1) {
+                    inAttributes = true;
+                }
+            } else {
+                name.append(c);
+            }
         }
     }
 
     public Class<?> resolveClass(String classname) throws ClassNotFoundException {
         LOGGER.trace("Trying to resolve class {} from BundleDelegatingClassResolver", classname);
-        synchronized (bundles) {
-            Collection<Bundle> values = bundles.values();
-            for (Bundle bundle : values) {
-                try {
-                    LOGGER.trace("Trying to load class {} from bundle {}", classname, bundle.getSymbolicName());
-                    Class<?> loadedClass = bundle.loadClass(classname);
-                    LOGGER.debug("Loaded class {} from bundle {}", classname, bundle.getSymbolicName());
-                    return loadedClass;
-                } catch (ClassNotFoundException e) {
-                    LOGGER.trace("Could not load class {} from bundle {} because bundle does not contain the class",
-                        classname, bundle.getSymbolicName());
-                } catch (IllegalStateException e) {
-                    LOGGER.trace("Could not load class {} from bundle {} because bundle had been uninstalled",
-                        classname,
-                        bundle.getSymbolicName());
+        int lastDot = classname.lastIndexOf('.');
+        Set<String> owners = lastDot == -1 ? null : packageIndex.get(classname.substring(0, lastDot));
+        if (owners != null) {
+            for (String symbolicName : owners) {
+                Bundle bundle = bundles.get(symbolicName);
+                if (bundle != null) {
+                    Class<?> loadedClass = loadClass(bundle, classname);
+                    if (loadedClass != null) {
+                        return loadedClass;
+                    }
                 }
             }
         }
+        // package unknown to all bundles (e.g. contained in an embedded jar or imported) or its owners had not been
+        // able to provide the class (e.g. it is contained in an embedded jar of another bundle): ask everyone else
+        for (Bundle bundle : bundles.values()) {
+            if (owners != null && owners.contains(bundle.getSymbolicName())) {
+                continue;
+            }
+            Class<?> loadedClass = loadClass(bundle, classname);
+            if (loadedClass != null) {
+                return loadedClass;
+            }
+        }
         throw new ClassNotFoundException("Class [" + classname + "] can't be resolved.");
     }
 
+    private static Class<?> loadClass(Bundle bundle, String classname) {
+        try {
+            LOGGER.trace("Trying to load class {} from bundle {}", classname, bundle.getSymbolicName());
+            Class<?> loadedClass = bundle.loadClass(classname);
+            LOGGER.debug("Loaded class {} from bundle {}", classname, bundle.getSymbolicName());
+            return loadedClass;
+        } catch (ClassNotFoundException e) {
+            LOGGER.trace("Could not load class {} from bundle {} because bundle does not contain the class",
+                classname, bundle.getSymbolicName());
+        } catch (IllegalStateException e) {
+            LOGGER.trace("Could not load class {} from bundle {} because bundle had been uninstalled",
+                classname,
+                bundle.getSymbolicName());
+        }
+        return null;
+    }
+
     @SuppressWarnings("unchecked")
     public Iterator<URL> getResources(String name) {
         ArrayList<URL> collectedResources = new ArrayList<URL>();
         try {
-            synchronized (bundles) {
-                Collection<Bundle> values = bundles.values();
-                for (Bundle bundle : values) {
-                    final Enumeration<URL> enumeration = bundle.getResources(name);
-                    if (enumeration == null) {
-                        continue;
-                    }
-                    while (enumeration.hasMoreElements()) {
-                        collectedResources.add(enumeration.nextElement());
-                    }
+            Collection<Bundle> values = bundles.values();
+            for (Bundle bundle : values) {
+                final Enumeration<URL> enumeration = bundle.getResources(name);
+                if (enumeration == null) {
+                    continue;
+                }
+                while (enumeration.hasMoreElements()) {
+                    collectedResources.add(enumeration.nextElement());
                 }
             }
         } catch (IOException e) {
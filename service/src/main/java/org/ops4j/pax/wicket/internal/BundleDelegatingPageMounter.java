@@ -15,12 +15,8 @@
  */
 package org.ops4j.pax.wicket.internal;
 
-import java.net.URL;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,6 +24,7 @@ import java.util.regex.Pattern;
 import org.apache.wicket.Page;
 import org.ops4j.pax.wicket.api.PaxWicketMountPoint;
 import org.ops4j.pax.wicket.internal.injection.BundleDelegatingComponentInstanciationListener;
+import org.ops4j.pax.wicket.internal.util.MountPointScanner;
 import org.ops4j.pax.wicket.util.DefaultPageMounter;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -40,7 +37,7 @@ import org.slf4j.LoggerFactory;
  * operation but rather services are exported directly at the pax-wicket bundle for the application to register the
  * right mount points.
  */
-public class BundleDelegatingPageMounter implements InternalBundleDelegationProvider {
+public class BundleDelegatingPageMounter implements InternalBundleDelegationProvider<DefaultPageMounter> {
 
     /**
      * 
@@ -52,8 +49,7 @@ public class BundleDelegatingPageMounter implements InternalBundleDelegationProv
     private final String applicationName;
     private final BundleContext paxWicketContext;
 
-    private Map<String, List<DefaultPageMounter>> mountPointRegistrations =
-        new HashMap<String, List<DefaultPageMounter>>();
+    private Map<String, DefaultPageMounter> mountPointRegistrations = new HashMap<String, DefaultPageMounter>();
 
     public BundleDelegatingPageMounter(String applicationName, BundleContext paxWicketContext) {
         this.applicationName = applicationName;
@@ -69,64 +65,42 @@ public class BundleDelegatingPageMounter implements InternalBundleDelegationProv
     }
 
     public void stop() {
-        Collection<List<DefaultPageMounter>> values = mountPointRegistrations.values();
-        for (List<DefaultPageMounter> bundleMounters : values) {
-            for (DefaultPageMounter pageMounter : bundleMounters) {
-                pageMounter.dispose();
-            }
+        Collection<DefaultPageMounter> values = mountPointRegistrations.values();
+        for (DefaultPageMounter pageMounter : values) {
+            pageMounter.dispose();
         }
-        mountPointRegistrations = new HashMap<String, List<DefaultPageMounter>>();
+        mountPointRegistrations = new HashMap<String, DefaultPageMounter>();
     }
 
     public void addBundle(Bundle bundleToScan) {
+        addBundle(bundleToScan, analyseBundle(bundleToScan));
+    }
+
+    /**
+     * @return the (not yet registered) mounter of all pages of the bundle or <code>null</code> if there are none
+     */
+    public DefaultPageMounter analyseBundle(Bundle bundleToScan) {
         String symbolicName = bundleToScan.getSymbolicName();
         if (symbolicName.equals(Activator.SYMBOLIC_NAME)
                 || symbolicName.startsWith(APACHE_WICKET_NAMESPACE)) {
             LOGGER.debug("Ignore the pax-wicket service package for PageMounting.");
-            return;
+            return null;
         }
         if (symbolicName.startsWith(APACHE_WICKET_NAMESPACE)) {
             LOGGER.debug("Ignore apache-wicket bundle " + symbolicName + " for PageMounting.");
-            return;
+            return null;
         }
         LOGGER.trace("Scanning bundle {} for PaxWicketMountPoint annotations", symbolicName);
-        if (mountPointRegistrations.containsKey(symbolicName)) {
-            removeBundle(bundleToScan);
-        }
-        mountPointRegistrations.put(symbolicName, new ArrayList<DefaultPageMounter>());
-        Enumeration<?> findEntries = bundleToScan.findEntries("", "*.class", true);
-        while (findEntries.hasMoreElements()) {
-            URL object = (URL) findEntries.nextElement();
-            String className = object.getFile().substring(1, object.getFile().length() - 6).replaceAll("/", ".");
-            Class<?> candidateClass = null;
+        // all pages of a bundle are mounted by a single registration
+        DefaultPageMounter bundleMounter = new DefaultPageMounter(applicationName, paxWicketContext);
+        for (String className : MountPointScanner.findMountPointCandidates(bundleToScan)) {
+            Class<?> candidateClass;
             try {
-                candidateClass = loadCandidate(className, bundleToScan);
-            } catch (NoClassDefFoundError e) {
-                // Its not nice to catch errors, but otherwhise we can't give a nice feedback!
-                String message = e.getMessage();
-                if (message != null) {
-                    // In eclipse, the entry for a class is prepend by the "bin-output-folder" (e.g.
-                    // bin/my/package/MyClass.class
-                    // If we detect this, try to load the real classname that is mentiened in the message
-                    Pattern pattern = Pattern.compile("\\(wrong name: (.+)\\)");
-                    Matcher matcher = pattern.matcher(message);
-                    if (matcher.find()) {
-                        String realname = matcher.group(1);
-                        LOGGER.debug("It seems the entry has a misleading name for class {}, retry with name {}",
-                            className, realname);
-                        candidateClass = loadCandidate(realname.replace('/', '.'), bundleToScan);
-                    }
-                }
-                if (candidateClass == null) {
-                    // If still null our fallback does not work...
-                    throw new IllegalStateException(
-                        "Class '"
-                                + className
-                                + "' found via bundle but classloader complains about NoClassDefFoundError although existing in bundle "
-                                + symbolicName
-                                + " (is the jar file corrupted or a dependant optional dependencies not resolved?)",
-                        e);
-                }
+                candidateClass = loadPageCandidate(className, bundleToScan);
+            } catch (IllegalStateException e) {
+                // a single broken class must not keep the other pages of the bundle from being mounted
+                LOGGER.warn("Skipping mount point candidate " + className + " of bundle " + symbolicName, e);
+                continue;
             }
             if (!Page.class.isAssignableFrom(candidateClass)) {
                 LOGGER.debug("Candidate {} not found, this can happen if the class has optional dependencies...");
@@ -136,13 +110,59 @@ public class BundleDelegatingPageMounter implements InternalBundleDelegationProv
             Class<? extends Page> pageClass = (Class<? extends Page>) candidateClass;
             PaxWicketMountPoint mountPoint = pageClass.getAnnotation(PaxWicketMountPoint.class);
             if (mountPoint != null) {
-                DefaultPageMounter mountPointRegistration = new DefaultPageMounter(applicationName, paxWicketContext);
-                mountPointRegistration.addMountPoint(mountPoint.mountPoint(), pageClass);
-                mountPointRegistration.register();
-                mountPointRegistrations.get(symbolicName).add(mountPointRegistration);
+                bundleMounter.addMountPoint(mountPoint.mountPoint(), pageClass);
                 LOGGER.debug("Mounting page {} at {}", pageClass.getName(), mountPoint.mountPoint());
             }
         }
+        return bundleMounter.getMountPoints().isEmpty() ? null : bundleMounter;
+    }
+
+    public void addBundle(Bundle bundle, DefaultPageMounter bundleMounter) {
+        if (mountPointRegistrations.containsKey(bundle.getSymbolicName())) {
+            removeBundle(bundle);
+        }
+        if (bundleMounter != null) {
+            bundleMounter.register();
+            mountPointRegistrations.put(bundle.getSymbolicName(), bundleMounter);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the class can not be loaded from the bundle
+     */
+    private Class<?> loadPageCandidate(String className, Bundle bundleToScan) {
+        String symbolicName = bundleToScan.getSymbolicName();
+        Class<?> candidateClass = null;
+        try {
+            candidateClass = loadCandidate(className, bundleToScan);
+        } catch (NoClassDefFoundError e) {
+            // Its not nice to catch errors, but otherwhise we can't give a nice feedback!
+            String message = e.getMessage();
+            if (message != null) {
+                // In eclipse, the entry for a class is prepend by the "bin-output-folder" (e.g.
+                // bin/my/package/MyClass.class
+                // If we detect this, try to load the real classname that is mentiened in the message
+                Pattern pattern = Pattern.compile("\\(wrong name: (.+)\\)");
+                Matcher matcher = pattern.matcher(message);
+                if (matcher.find()) {
+                    String realname = matcher.group(1);
+                    LOGGER.debug("It seems the entry has a misleading name for class {}, retry with name {}",
+                        className, realname);
+                    candidateClass = loadCandidate(realname.replace('/', '.'), bundleToScan);
+                }
+            }
+            if (candidateClass == null) {
+                // If still null our fallback does not work...
+                throw new IllegalStateException(
+                    "Class '"
+                            + className
+                            + "' found via bundle but classloader complains about NoClassDefFoundError although existing in bundle "
+                            + symbolicName
+                            + " (is the jar file corrupted or a dependant optional dependencies not resolved?)",
+                    e);
+            }
+        }
+        return candidateClass;
     }
 
     /**
@@ -161,14 +181,10 @@ public class BundleDelegatingPageMounter implements InternalBundleDelegationProv
     }
 
     public void removeBundle(Bundle bundle) {
-        List<DefaultPageMounter> registrations = mountPointRegistrations.get(bundle.getSymbolicName());
-        if (registrations == null) {
-            return;
-        }
-        for (DefaultPageMounter pageMounter : registrations) {
+        DefaultPageMounter pageMounter = mountPointRegistrations.remove(bundle.getSymbolicName());
+        if (pageMounter != null) {
             pageMounter.dispose();
         }
-        mountPointRegistrations.remove(bundle.getSymbolicName());
     }
 
 }
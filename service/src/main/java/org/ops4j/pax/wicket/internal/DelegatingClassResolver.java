@@ -28,20 +28,45 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.ops4j.lang.NullArgumentException.validateNotEmpty;
 import static org.ops4j.lang.NullArgumentException.validateNotNull;
 import static org.ops4j.pax.wicket.api.Constants.APPLICATION_NAME;
 import static org.osgi.framework.Constants.OBJECTCLASS;
 
+/**
+ * {@link IClassResolver} delegating to all {@link IClassResolver} services registered for an application. Successful
+ * lookups are remembered as class name to resolver mappings and failed lookups are remembered in a bounded negative
+ * cache; both caches are invalidated by the {@link ClassResolverTracker} whenever the set of resolvers changes.
+ */
 public final class DelegatingClassResolver implements IClassResolver {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DelegatingClassResolver.class);
 
+    /**
+     * Upper bound of remembered unresolvable class names; the negative cache is dropped as a whole once it is reached.
+     */
+    static final int MAX_NEGATIVE_CACHE_SIZE = 4096;
+
     private final BundleContext context;
     private final String applicationName;
     private final List<IClassResolver> resolvers;
 
+    private final ConcurrentMap<String, IClassResolver> resolvedClasses;
+    private final ConcurrentMap<String, Boolean> unresolvableClasses;
+    /**
+     * Incremented on every change of the resolvers so that lookups running concurrently to a change do not store
+     * outdated results in the caches.
+     */
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
     private ClassResolverTracker tracker;
 
     public DelegatingClassResolver(BundleContext context, String applicationName) throws IllegalArgumentException {
@@ -49,7 +74,9 @@ public final class DelegatingClassResolver implements IClassResolver {
         validateNotEmpty(applicationName, "applicationName");
         this.context = context;
         this.applicationName = applicationName;
-        resolvers = new ArrayList<IClassResolver>();
+        resolvers = new CopyOnWriteArrayList<IClassResolver>();
+        resolvedClasses = new ConcurrentHashMap<String, IClassResolver>();
+        unresolvableClasses = new ConcurrentHashMap<String, Boolean>();
     }
 
     public final void intialize() throws IllegalStateException {
@@ -85,45 +112,116 @@ public final class DelegatingClassResolver implements IClassResolver {
     }
 
     public Class<?> resolveClass(final String classname) throws ClassNotFoundException {
-        synchronized (resolvers) {
-            LOGGER.trace("Try to resolve {} from {} resolvers", classname, resolvers.size());
-            for (IClassResolver resolver : resolvers) {
-                try {
-                    Class<?> candidate = resolver.resolveClass(classname);
-                    if (candidate != null) {
-                        return candidate;
-                    }
-                } catch (ClassNotFoundException e) {
-                    LOGGER.trace("ClassResolver {} could not find class: {}", resolver, classname);
-                } catch (RuntimeException e) {
-                    LOGGER.warn("ClassResolver {} threw an unexpected exception.", resolver, e);
+        IClassResolver cachedResolver = resolvedClasses.get(classname);
+        if (cachedResolver != null) {
+            Class<?> candidate = resolveClass(cachedResolver, classname);
+            if (candidate != null) {
+                cacheHits.incrementAndGet();
+                return candidate;
+            }
+            resolvedClasses.remove(classname, cachedResolver);
+        } else if (unresolvableClasses.containsKey(classname)) {
+            cacheHits.incrementAndGet();
+            throw new ClassNotFoundException(String.format("Class [%s] can't be resolved.", classname));
+        }
+        cacheMisses.incrementAndGet();
+
+        long startGeneration = generation.get();
+        LOGGER.trace("Try to resolve {} from {} resolvers", classname, resolvers.size());
+        for (IClassResolver resolver : resolvers) {
+            Class<?> candidate = resolveClass(resolver, classname);
+            if (candidate != null) {
+                resolvedClasses.put(classname, resolver);
+                if (generation.get() != startGeneration) {
+                    resolvedClasses.remove(classname, resolver);
                 }
+                return candidate;
             }
         }
+        if (unresolvableClasses.size() >= MAX_NEGATIVE_CACHE_SIZE) {
+            unresolvableClasses.clear();
+        }
+        unresolvableClasses.put(classname, Boolean.TRUE);
+        if (generation.get() != startGeneration) {
+            unresolvableClasses.remove(classname);
+        }
         throw new ClassNotFoundException(String.format("Class [%s] can't be resolved.", classname));
     }
 
+    private Class<?> resolveClass(IClassResolver resolver, String classname) {
+        try {
+            return resolver.resolveClass(classname);
+        } catch (ClassNotFoundException e) {
+            LOGGER.trace("ClassResolver {} could not find class: {}", resolver, classname);
+        } catch (RuntimeException e) {
+            LOGGER.warn("ClassResolver {} threw an unexpected exception.", resolver, e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of lookups answered from the positive or negative cache
+     */
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return the number of lookups which had to ask the registered resolvers
+     */
+    public long getCacheMissCount() {
+        return cacheMisses.get();
+    }
+
     public Iterator<URL> getResources(String name) {
-        synchronized (resolvers) {
-            ArrayList<URL> collectedResources = new ArrayList<URL>();
-            for (IClassResolver resolver : resolvers) {
-                try {
-                    Iterator<URL> iterator = resolver.getResources(name);
-                    if (iterator == null) {
-                        continue;
-                    }
-                    while (iterator.hasNext()) {
-                        collectedResources.add(iterator.next());
-                    }
-                } catch (RuntimeException e) {
-                    LOGGER.warn("ClassResolver {} threw an unexpected exception.", resolver, e);
-                    return collectedResources.iterator();
+        ArrayList<URL> collectedResources = new ArrayList<URL>();
+        for (IClassResolver resolver : resolvers) {
+            try {
+                Iterator<URL> iterator = resolver.getResources(name);
+                if (iterator == null) {
+                    continue;
+                }
+                while (iterator.hasNext()) {
+                    collectedResources.add(iterator.next());
                 }
+            } catch (RuntimeException e) {
+                LOGGER.warn("ClassResolver {} threw an unexpected exception.", resolver, e);
+                return collectedResources.iterator();
+            }
+        }
+        return collectedResources.iterator();
+    }
+
+    /**
+     * A new resolver may know classes which could not be resolved before; entries resolved by other resolvers stay
+     * valid since they are asked first.
+     */
+    private void resolverAdded() {
+        generation.incrementAndGet();
+        unresolvableClasses.clear();
+    }
+
+    /**
+     * Classes resolved by the given resolver have to be looked up again; misses stay valid.
+     */
+    private void resolverRemoved(IClassResolver resolver) {
+        generation.incrementAndGet();
+        for (Map.Entry<String, IClassResolver> entry : resolvedClasses.entrySet()) {
+            if (entry.getValue() == resolver) {
+                resolvedClasses.remove(entry.getKey(), resolver);
             }
-            return collectedResources.iterator();
         }
     }
 
+    /**
+     * The content of a resolver changed (e.g. bundles were added to or removed from it); both, hits and misses
+     * related to it, have to be looked up again.
+     */
+    private void resolverModified(IClassResolver resolver) {
+        resolverRemoved(resolver);
+        resolverAdded();
+    }
+
     private final class ClassResolverTracker extends ServiceTracker {
 
         private final String m_applicationName;
@@ -136,9 +234,8 @@ public final class DelegatingClassResolver implements IClassResolver {
         @Override
         public final Object addingService(ServiceReference reference) {
             IClassResolver resolver = (IClassResolver) super.addingService(reference);
-            synchronized (resolvers) {
-                resolvers.add(resolver);
-            }
+            resolvers.add(resolver);
+            resolverAdded();
             return resolver;
         }
 
@@ -151,12 +248,14 @@ public final class DelegatingClassResolver implements IClassResolver {
                     if (!nameClass.isArray()) {
                         String appName = (String) objAppName;
                         if (m_applicationName.equals(appName)) {
+                            resolverModified((IClassResolver) service);
                             return;
                         }
                     } else {
                         String[] appNames = (String[]) objAppName;
                         for (String appName : appNames) {
                             if (m_applicationName.equals(appName)) {
+                                resolverModified((IClassResolver) service);
                                 return;
                             }
                         }
@@ -169,9 +268,8 @@ public final class DelegatingClassResolver implements IClassResolver {
         @Override
         public final void removedService(ServiceReference reference, Object service) {
             IClassResolver resolver = (IClassResolver) service;
-            synchronized (resolvers) {
-                resolvers.remove(resolver);
-            }
+            resolvers.remove(resolver);
+            resolverRemoved(resolver);
             super.removedService(reference, service);
         }
     }
@@ -22,9 +22,11 @@ import org.osgi.framework.Bundle;
  * helping to provide an internal standard of methods for such classes.
  * 
  * An additional important remark: Non of those classes implementing this interface have to handle synchronized
- * themselves, but have to be rather synchronized by the caller!
+ * themselves, but have to be rather synchronized by the caller! The only exception is {@link #analyseBundle(Bundle)}.
+ *
+ * @param <A> the result of analysing a bundle
  */
-public interface InternalBundleDelegationProvider {
+public interface InternalBundleDelegationProvider<A> {
 
     /**
      * Each {@link InternalBundleDelegationProvider} has to know the applicationName it is registered for. This method
@@ -52,6 +54,18 @@ public interface InternalBundleDelegationProvider {
      */
     void addBundle(Bundle bundle);
 
+    /**
+     * Does the expensive part of adding a bundle, which only reads the bundle (e.g. scanning its classes). Other than
+     * the remaining methods this one is called without synchronization, possibly for several bundles at once; the
+     * result is passed to {@link #addBundle(Bundle, Object)} later on.
+     */
+    A analyseBundle(Bundle bundle);
+
+    /**
+     * Like {@link #addBundle(Bundle)} for a bundle already analysed by {@link #analyseBundle(Bundle)}.
+     */
+    void addBundle(Bundle bundle, A analysis);
+
     /**
      * Removes a bundle which shouldn't be used any longer for delegation. This will throw an
      * {@link IllegalStateException} in case the {@link #start()} method had not been called already. If you try to
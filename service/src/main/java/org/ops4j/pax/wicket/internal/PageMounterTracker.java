@@ -75,20 +75,31 @@ public final class PageMounterTracker extends ServiceTracker {
         PageMounter mounter = (PageMounter) super.addingService(reference);
 
         List<MountPointInfo> infos = mounter.getMountPoints();
-        for (MountPointInfo info : infos) {
-            LOGGER.trace("Make sure that path {} is clear before trying to remount", info.getPath());
-            Application oldApp = ThreadContext.getApplication();
-            ThreadContext.setApplication(application);
-            try {
-                application.unmount(info.getPath());
-            } catch (IllegalArgumentException e) {
-                LOGGER.trace("Unmounting not possible since nothing here by now.");
-                // this could happen if wicket had not been started at all by now --> simply ignore
+        if (infos.isEmpty()) {
+            return mounter;
+        }
+        Application oldApp = ThreadContext.getApplication();
+        ThreadContext.setApplication(application);
+        try {
+            for (MountPointInfo info : infos) {
+                LOGGER.trace("Make sure that path {} is clear before trying to remount", info.getPath());
+                try {
+                    application.unmount(info.getPath());
+                } catch (IllegalArgumentException e) {
+                    LOGGER.trace("Unmounting not possible since nothing here by now.");
+                    // this could happen if wicket had not been started at all by now --> simply ignore
+                }
+                LOGGER.trace("Trying to mount {} with {}", info.getPath(), info.getPage().getName());
+                try {
+                    application.mountPage(info.getPath(), info.getPage());
+                    LOGGER.info("Mounted {} with {}", info.getPath(), info.getPage().getName());
+                } catch (RuntimeException e) {
+                    // the other pages of the mounter are still mounted (and unmounted once it is removed)
+                    LOGGER.error(format("Mounting %s with %s failed", info.getPath(), info.getPage().getName()), e);
+                }
             }
-            LOGGER.trace("Trying to mount {} with {}", info.getPath(), info.getPage().getName());
-            application.mountPage(info.getPath(), info.getPage());
+        } finally {
             ThreadContext.setApplication(oldApp);
-            LOGGER.info("Mounted {} with {}", info.getPath(), info.getPage().getName());
         }
 
         return mounter;
@@ -98,17 +109,27 @@ public final class PageMounterTracker extends ServiceTracker {
     public final void removedService(ServiceReference reference, Object mounter) {
         PageMounter pageMounter = (PageMounter) mounter;
         List<MountPointInfo> infos = pageMounter.getMountPoints();
-        for (MountPointInfo info : infos) {
-            LOGGER.trace("Trying to mount {} with {}", info.getPath(), info.getPage().getName());
+        if (!infos.isEmpty()) {
             Application oldApp = ThreadContext.getApplication();
             ThreadContext.setApplication(application);
-            if (!Session.exists()) {
-                Request request = new MockWebRequest(Url.parse(info.getPath()));
-                ThreadContext.setSession(new WebSession(request));
+            try {
+                if (!Session.exists()) {
+                    Request request = new MockWebRequest(Url.parse(infos.get(0).getPath()));
+                    ThreadContext.setSession(new WebSession(request));
+                }
+                for (MountPointInfo info : infos) {
+                    LOGGER.trace("Trying to unmount {} with {}", info.getPath(), info.getPage().getName());
+                    try {
+                        application.unmount(info.getPath());
+                        LOGGER.info("Unmounted {} with {}", info.getPath(), info.getPage().getName());
+                    } catch (RuntimeException e) {
+                        LOGGER.warn(format("Unmounting %s with %s failed", info.getPath(), info.getPage()
+                            .getName()), e);
+                    }
+                }
+            } finally {
+                ThreadContext.setApplication(oldApp);
             }
-            application.unmount(info.getPath());
-            ThreadContext.setApplication(oldApp);
-            LOGGER.info("Unmounted {} with {}", info.getPath(), info.getPage().getName());
         }
 
         super.removedService(reference, pageMounter);
@@ -18,7 +18,9 @@ package org.ops4j.pax.wicket.internal;
 import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
+import org.apache.wicket.DefaultPageManagerProvider;
 import org.apache.wicket.IPageFactory;
+import org.apache.wicket.pageStore.IDataStore;
 import org.apache.wicket.protocol.http.IWebApplicationFactory;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.protocol.http.WicketFilter;
@@ -26,9 +28,13 @@ import org.ops4j.pax.wicket.api.Constants;
 import org.ops4j.pax.wicket.api.WebApplicationFactory;
 import org.ops4j.pax.wicket.internal.injection.ComponentInstantiationListenerFacade;
 import org.ops4j.pax.wicket.internal.injection.DelegatingComponentInstanciationListener;
+import org.ops4j.pax.wicket.internal.store.MappedDataStore;
+import org.ops4j.pax.wicket.internal.store.WriteBehindDataStore;
 import org.ops4j.pax.wicket.util.serialization.PaxWicketSerializer;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.lang.reflect.Method;
@@ -43,6 +49,8 @@ import java.util.Map;
  */
 public class PaxWicketApplicationFactory implements IWebApplicationFactory {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketApplicationFactory.class);
+
     private final BundleContext bundleContext;
     private final WebApplicationFactory webApplicationFactory;
     private final String applicationName;
@@ -116,6 +124,7 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
         private DelegatingClassResolver delegatingClassResolver;
         private DelegatingComponentInstanciationListener delegatingComponentInstanciationListener;
         private PageMounterTracker mounterTracker;
+        private PaxWicketSerializer serializer;
 
         public Object intercept(Object object, Method method, Object[] args, MethodProxy methodProxy) throws Throwable {
             if (isFinalizeMethod(method)) {
@@ -179,7 +188,9 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
                     new DelegatingComponentInstanciationListener(bundleContext, applicationName);
             delegatingComponentInstanciationListener.intialize();
 
-            application.getFrameworkSettings().setSerializer(new PaxWicketSerializer(getApplicationName()));
+            serializer = createSerializer();
+            application.getFrameworkSettings().setSerializer(serializer);
+            configurePageStore(application);
             application.getComponentInstantiationListeners().add(new ComponentInstantiationListenerFacade(
                     delegatingComponentInstanciationListener));
             application.getApplicationSettings().setClassResolver(delegatingClassResolver);
@@ -189,6 +200,99 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
             mounterTracker.open();
         }
 
+        private PaxWicketSerializer createSerializer() {
+            String serializerName = contextParams.get(Constants.SERIALIZER);
+            boolean compactClassDescriptors = false;
+            if (Constants.SERIALIZER_COMPACT.equals(serializerName)) {
+                compactClassDescriptors = true;
+            } else if (serializerName != null && !Constants.SERIALIZER_JAVA.equals(serializerName)) {
+                LOGGER.warn("Unknown serializer {} configured for application {}, use java serialization",
+                    serializerName, applicationName);
+            }
+            return new PaxWicketSerializer(getApplicationName(), compactClassDescriptors, getCompressionLevel());
+        }
+
+        private void configurePageStore(final WebApplication application) {
+            final boolean mapped = isMappedPageStore();
+            final int writeBehindCapacity =
+                getNonNegativeInt(Constants.PAGE_STORE_WRITE_BEHIND, "page store write behind capacity");
+            if (!mapped && writeBehindCapacity == 0) {
+                return;
+            }
+            final File folder =
+                new File(new File(tmpDir, "page-store"), applicationName.replaceAll("[^A-Za-z0-9._-]", "_"));
+            application.setPageManagerProvider(new DefaultPageManagerProvider(application) {
+                @Override
+                protected IDataStore newDataStore() {
+                    IDataStore dataStore;
+                    if (mapped) {
+                        dataStore =
+                            new MappedDataStore(folder, MappedDataStore.DEFAULT_SEGMENT_SIZE, application
+                                .getStoreSettings().getMaxSizePerSession().bytes());
+                    } else {
+                        dataStore = super.newDataStore();
+                    }
+                    if (writeBehindCapacity == 0) {
+                        return dataStore;
+                    }
+                    return new WriteBehindDataStore(dataStore, applicationName, writeBehindCapacity,
+                        WriteBehindDataStore.DEFAULT_BATCH_SIZE, WriteBehindDataStore.DEFAULT_OFFER_TIMEOUT_MILLIS);
+                }
+            });
+        }
+
+        private boolean isMappedPageStore() {
+            String pageStore = contextParams.get(Constants.PAGE_STORE);
+            if (pageStore == null || Constants.PAGE_STORE_DISK.equals(pageStore)) {
+                return false;
+            }
+            if (Constants.PAGE_STORE_MAPPED.equals(pageStore)) {
+                return true;
+            }
+            LOGGER.warn("Unknown page store {} configured for application {}, use the disk store", pageStore,
+                applicationName);
+            return false;
+        }
+
+        /**
+         * @return the value of the context parameter or <code>0</code> if it is not set or invalid
+         */
+        private int getNonNegativeInt(String contextParam, String description) {
+            String value = contextParams.get(contextParam);
+            if (value == null) {
+                return 0;
+            }
+            try {
+                int parsed = Integer.parseInt(value.trim());
+                if (parsed >= 0) {
+                    return parsed;
+                }
+            } catch (NumberFormatException e) {
+                // handled below
+            }
+            LOGGER.warn("Invalid {} {} configured for application {}, ignore it", new Object[]{ description, value,
+                applicationName });
+            return 0;
+        }
+
+        private int getCompressionLevel() {
+            String compression = contextParams.get(Constants.SERIALIZER_COMPRESSION);
+            if (compression == null) {
+                return 0;
+            }
+            try {
+                int level = Integer.parseInt(compression.trim());
+                if (level >= 0 && level <= 9) {
+                    return level;
+                }
+            } catch (NumberFormatException e) {
+                // handled below
+            }
+            LOGGER.warn("Invalid compression level {} configured for application {}, pages are not compressed",
+                compression, applicationName);
+            return 0;
+        }
+
         private IPageFactory handleNewPageFactory() {
             if (pageFactory == null) {
                 pageFactory = new PaxWicketPageFactory(bundleContext, applicationName);
@@ -203,6 +307,7 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
             delegatingComponentInstanciationListener.dispose();
             mounterTracker.close();
             filterDelegator.dispose();
+            serializer.dispose();
         }
 
     }
@@ -20,18 +20,23 @@ import org.apache.wicket.request.component.IRequestablePage;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.session.DefaultPageFactory;
 import org.ops4j.pax.wicket.api.PageFactory;
+import org.ops4j.pax.wicket.internal.util.ResolvedClassCache;
 import org.osgi.framework.BundleContext;
 import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.ops4j.lang.NullArgumentException.validateNotNull;
 
 /**
  * Wrapper around the original wicket {@link DefaultPageFactory} adding lookup possiblities for own page loaders. In
  * case non are provided the original wicket algorithm for loading of pages is used.
+ *
+ * Lookups do not lock: the registered page factories are kept in a concurrent map and the wicket page factory (with its
+ * constructor cache) as well as the bookmarkability of page classes are retained until a bundle stops.
  */
 public final class PaxWicketPageFactory implements IPageFactory {
 
@@ -39,7 +44,9 @@ public final class PaxWicketPageFactory implements IPageFactory {
 
     private final BundleContext bundleContext;
     private final String applicationName;
-    private final HashMap<Class<?>, PageFactory<? extends IRequestablePage>> contents;
+    private final ConcurrentMap<Class<?>, PageFactory<? extends IRequestablePage>> contents;
+
+    private volatile Delegate delegate;
 
     private ServiceTracker m_pageTracker;
 
@@ -47,7 +54,7 @@ public final class PaxWicketPageFactory implements IPageFactory {
         validateNotNull(context, "context");
         validateNotNull(applicationName, "applicationName");
 
-        contents = new HashMap<Class<?>, PageFactory<? extends IRequestablePage>>();
+        contents = new ConcurrentHashMap<Class<?>, PageFactory<? extends IRequestablePage>>();
         bundleContext = context;
         this.applicationName = applicationName;
     }
@@ -58,10 +65,9 @@ public final class PaxWicketPageFactory implements IPageFactory {
     }
 
     public final void dispose() {
-        synchronized (this) {
-            contents.clear();
-            m_pageTracker.close();
-        }
+        m_pageTracker.close();
+        contents.clear();
+        delegate = null;
     }
 
     /**
@@ -74,14 +80,11 @@ public final class PaxWicketPageFactory implements IPageFactory {
      * @throws org.apache.wicket.WicketRuntimeException Thrown if the page cannot be constructed
      */
     public final <C extends IRequestablePage> C newPage(final Class<C> pageClass) {
-        PageFactory<? extends IRequestablePage> content;
-        synchronized (this) {
-            content = contents.get(pageClass);
-        }
+        PageFactory<? extends IRequestablePage> content = contents.get(pageClass);
         if (content != null) {
             return (C) content.createPage(new PageParameters());
         }
-        return new DefaultPageFactory().newPage(pageClass);
+        return getDelegate().pageFactory.newPage(pageClass);
     }
 
     /**
@@ -97,34 +100,59 @@ public final class PaxWicketPageFactory implements IPageFactory {
      * @throws org.apache.wicket.WicketRuntimeException Thrown if the page cannot be constructed
      */
     public final <C extends IRequestablePage> C newPage(final Class<C> pageClass, final PageParameters parameters) {
-        PageFactory<? extends IRequestablePage> content;
-        synchronized (this) {
-            content = contents.get(pageClass);
-        }
+        PageFactory<? extends IRequestablePage> content = contents.get(pageClass);
         if (content != null) {
             return (C) content.createPage(parameters);
         }
-        return new DefaultPageFactory().newPage(pageClass, parameters);
+        return getDelegate().pageFactory.newPage(pageClass, parameters);
     }
 
     public <C extends IRequestablePage> boolean isBookmarkable(Class<C> pageClass) {
-        return new DefaultPageFactory().isBookmarkable(pageClass);
+        Delegate current = getDelegate();
+        Boolean bookmarkable = current.bookmarkable.get(pageClass);
+        if (bookmarkable == null) {
+            // the wicket cache is keyed by class name only, so different versions of a class would share an answer
+            bookmarkable = new DefaultPageFactory().isBookmarkable(pageClass);
+            current.bookmarkable.put(pageClass, bookmarkable);
+        }
+        return bookmarkable;
     }
 
     public void add(Class<?> pageClass, PageFactory<?> pageSource) throws IllegalArgumentException {
         validateNotNull(pageClass, "pageClass");
         validateNotNull(pageSource, "pageSource");
 
-        synchronized (this) {
-            contents.put(pageClass, pageSource);
-        }
+        contents.put(pageClass, pageSource);
     }
 
     public final void remove(Class<?> pageClass) throws IllegalArgumentException {
         validateNotNull(pageClass, "pageClass");
 
-        synchronized (this) {
-            contents.remove(pageClass);
+        contents.remove(pageClass);
+    }
+
+    /**
+     * @return the retained wicket page factory and bookmarkability cache; both are replaced once a bundle stopped since
+     *         they hold on to the classes of the bundle
+     */
+    private Delegate getDelegate() {
+        long generation = ResolvedClassCache.getGeneration();
+        Delegate current = delegate;
+        if (current == null || current.generation != generation) {
+            current = new Delegate(generation);
+            delegate = current;
+        }
+        return current;
+    }
+
+    private static final class Delegate {
+
+        private final long generation;
+        private final DefaultPageFactory pageFactory = new DefaultPageFactory();
+        private final ConcurrentMap<Class<?>, Boolean> bookmarkable = new ConcurrentHashMap<Class<?>, Boolean>();
+
+        private Delegate(long generation) {
+            this.generation = generation;
         }
     }
 
@@ -19,18 +19,37 @@ import org.ops4j.pax.wicket.api.Constants;
 import org.ops4j.pax.wicket.api.WebApplicationFactory;
 import org.ops4j.pax.wicket.internal.BundleDelegatingClassResolver;
 import org.ops4j.pax.wicket.internal.BundleDelegatingPageMounter;
+import org.ops4j.pax.wicket.internal.InternalBundleDelegationProvider;
+import org.ops4j.pax.wicket.internal.injection.BundleAnalysingComponentInstantiationListener;
 import org.ops4j.pax.wicket.internal.injection.BundleDelegatingComponentInstanciationListener;
+import org.ops4j.pax.wicket.internal.util.MountPointScanner;
 import org.ops4j.pax.wicket.internal.util.ServiceTrackerAggregatorReadyChildren;
+import org.ops4j.pax.wicket.util.DefaultPageMounter;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Right now it listens on all pax-wicket applications. In addition it is "feeded" by a bundleListeners with all bundles
@@ -46,13 +65,31 @@ import java.util.Set;
  * added to the matching services).
  *
  * Everytime a bundle is removed it is simply removed from all applications from all services.
+ *
+ * The expensive part of adding a bundle (analysing its classes, see
+ * {@link InternalBundleDelegationProvider#analyseBundle(Bundle)}) is done without holding the lock of the tracker, for
+ * many bundles in parallel; only the results are published to the services under the lock, one bundle after the
+ * other in the order of the bundle ids.
  */
 public class BundleDelegatingExtensionTracker implements ServiceTrackerAggregatorReadyChildren<WebApplicationFactory> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleDelegatingExtensionTracker.class);
 
+    private static final Comparator<Bundle> BUNDLE_ID_ORDER = new Comparator<Bundle>() {
+        public int compare(Bundle o1, Bundle o2) {
+            long id1 = o1.getBundleId();
+            long id2 = o2.getBundleId();
+            return id1 < id2 ? -1 : id1 == id2 ? 0 : 1;
+        }
+    };
+
     private BundleContext paxWicketBundleContext;
     private Map<String, Bundle> relvantBundles = new HashMap<String, Bundle>();
+    /**
+     * Bundles being analysed by {@link #addRelevantBundle(Bundle)}; a bundle removed meanwhile is dropped from here so
+     * it is not added after its removal.
+     */
+    private Set<Bundle> pendingBundles = new HashSet<Bundle>();
     private Map<ServiceReference, BundleDelegatingClassResolver> classResolvers =
         new HashMap<ServiceReference, BundleDelegatingClassResolver>();
     private Map<ServiceReference, BundleDelegatingComponentInstanciationListener> componentInstanciationListener =
@@ -60,23 +97,91 @@ public class BundleDelegatingExtensionTracker implements ServiceTrackerAggregato
     private Map<ServiceReference, BundleDelegatingPageMounter> pageMounter =
         new HashMap<ServiceReference, BundleDelegatingPageMounter>();
 
+    private final ExecutorService scanExecutor;
+
     public BundleDelegatingExtensionTracker(BundleContext context) {
         paxWicketBundleContext = context;
+        int scanThreads = getScanThreads(context);
+        // idle threads terminate; if all threads are busy the submitting thread scans the bundle itself
+        scanExecutor =
+            new ThreadPoolExecutor(0, scanThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ScannerThreadFactory(), new RunInCallerPolicy());
+    }
+
+    private static int getScanThreads(BundleContext context) {
+        int availableProcessors = Runtime.getRuntime().availableProcessors();
+        String configured = context.getProperty(Constants.SCAN_THREADS);
+        if (configured == null) {
+            return availableProcessors;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(configured.trim()));
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid value {} for {}, using {} threads", new Object[]{ configured,
+                Constants.SCAN_THREADS, availableProcessors });
+            return availableProcessors;
+        }
+    }
+
+    /**
+     * Stops the threads scanning bundles.
+     */
+    public void close() {
+        scanExecutor.shutdownNow();
+    }
+
+    /**
+     * Scans the given bundles in parallel, filling the caches shared by all applications. Returns once all bundles are
+     * scanned; problems are only logged since they show up again (and are handled) when the bundle is added.
+     */
+    public void scanBundles(Collection<Bundle> bundles) {
+        if (bundles.size() < 2) {
+            for (Bundle bundle : bundles) {
+                scanBundle(bundle);
+            }
+            return;
+        }
+        List<Callable<Object>> scans = new ArrayList<Callable<Object>>(bundles.size());
+        for (final Bundle bundle : bundles) {
+            scans.add(new Callable<Object>() {
+                public Object call() {
+                    scanBundle(bundle);
+                    return null;
+                }
+            });
+        }
+        try {
+            scanExecutor.invokeAll(scans);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void scanBundle(Bundle bundle) {
+        try {
+            MountPointScanner.findMountPointCandidates(bundle);
+        } catch (Throwable e) {
+            LOGGER.debug("Bundle {} could not be scanned upfront", bundle.getSymbolicName(), e);
+        }
     }
 
     public void addingService(ServiceReference reference, WebApplicationFactory service) {
+        BundleAnalysis[] analyses;
         synchronized (this) {
             addServicesForServiceReference(reference);
-            reevaluateAllBundles(reference);
+            analyses = createAnalyses(reference);
         }
+        reevaluateAllBundles(analyses);
     }
 
     public void modifiedService(ServiceReference reference, WebApplicationFactory service) {
+        BundleAnalysis[] analyses;
         synchronized (this) {
             removeServicesForServiceReference(reference);
             addServicesForServiceReference(reference);
-            reevaluateAllBundles(reference);
+            analyses = createAnalyses(reference);
         }
+        reevaluateAllBundles(analyses);
     }
 
     public void removedService(ServiceReference reference, WebApplicationFactory service) {
@@ -105,28 +210,122 @@ public class BundleDelegatingExtensionTracker implements ServiceTrackerAggregato
         pageMounter.remove(reference);
     }
 
-    private void reevaluateAllBundles(ServiceReference reference) {
-        Collection<Bundle> bundles = relvantBundles.values();
-        for (Bundle bundle : bundles) {
-            addBundleToServicesReference(bundle, reference);
+    /**
+     * @return the analyses of all relevant bundles (in the order of the bundle ids) for the services of the reference;
+     *         has to be called while holding the lock
+     */
+    private BundleAnalysis[] createAnalyses(ServiceReference reference) {
+        List<Bundle> bundles = new ArrayList<Bundle>(relvantBundles.values());
+        Collections.sort(bundles, BUNDLE_ID_ORDER);
+        BundleAnalysis[] analyses = new BundleAnalysis[bundles.size()];
+        for (int i = 0; i < analyses.length; i++) {
+            analyses[i] = createAnalysis(bundles.get(i), reference);
+        }
+        return analyses;
+    }
+
+    /**
+     * Analyses the bundles in parallel, without holding the lock, and publishes the results under the lock afterwards.
+     */
+    private void reevaluateAllBundles(BundleAnalysis[] analyses) {
+        analyse(analyses);
+        synchronized (this) {
+            for (BundleAnalysis analysis : analyses) {
+                // skip bundles removed meanwhile
+                if (relvantBundles.get(analysis.bundle.getSymbolicName()) == analysis.bundle) {
+                    publish(analysis);
+                }
+            }
         }
     }
 
     public void addRelevantBundle(Bundle bundle) {
+        List<BundleAnalysis> analyses = new ArrayList<BundleAnalysis>();
+        synchronized (this) {
+            pendingBundles.add(bundle);
+            for (ServiceReference reference : classResolvers.keySet()) {
+                analyses.add(createAnalysis(bundle, reference));
+            }
+        }
+        // analyse outside of the lock
+        if (analyses.isEmpty()) {
+            scanBundle(bundle);
+        } else {
+            analyse(analyses.toArray(new BundleAnalysis[analyses.size()]));
+        }
         synchronized (this) {
+            if (!pendingBundles.remove(bundle) && relvantBundles.get(bundle.getSymbolicName()) != bundle) {
+                LOGGER.debug("{} has been removed while it was analysed", bundle.getSymbolicName());
+                return;
+            }
             relvantBundles.put(bundle.getSymbolicName(), bundle);
-            Set<ServiceReference> services = classResolvers.keySet();
-            for (ServiceReference serviceReference : services) {
-                addBundleToServicesReference(bundle, serviceReference);
+            for (ServiceReference reference : classResolvers.keySet()) {
+                BundleAnalysis analysis = null;
+                for (BundleAnalysis candidate : analyses) {
+                    if (candidate.classResolver == classResolvers.get(reference)) {
+                        analysis = candidate;
+                    }
+                }
+                if (analysis == null) {
+                    // the services of the reference have been added or replaced meanwhile
+                    analysis = createAnalysis(bundle, reference);
+                    analysis.run();
+                }
+                publish(analysis);
             }
         }
     }
 
-    private void addBundleToServicesReference(Bundle bundle, ServiceReference reference) {
+    /**
+     * Captures the services of the reference a bundle is analysed for; has to be called while holding the lock.
+     */
+    private BundleAnalysis createAnalysis(Bundle bundle, ServiceReference reference) {
+        return new BundleAnalysis(bundle, reference, classResolvers.get(reference),
+            componentInstanciationListener.get(reference), pageMounter.get(reference));
+    }
+
+    private void analyse(BundleAnalysis[] analyses) {
+        if (analyses.length < 2) {
+            for (BundleAnalysis analysis : analyses) {
+                analysis.run();
+            }
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>(analyses.length);
+        for (BundleAnalysis analysis : analyses) {
+            futures.add(scanExecutor.submit(analysis));
+        }
         try {
-            classResolvers.get(reference).addBundle(bundle);
-            componentInstanciationListener.get(reference).addBundle(bundle);
-            pageMounter.get(reference).addBundle(bundle);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // not possible, failures are kept by the analysis
+            LOGGER.warn("Analysing a bundle failed", e);
+        }
+    }
+
+    /**
+     * Adds the analysed bundle to the services it was analysed for; has to be called while holding the lock.
+     */
+    private void publish(BundleAnalysis analysis) {
+        if (classResolvers.get(analysis.reference) != analysis.classResolver) {
+            // the services of the reference have been replaced or removed meanwhile
+            return;
+        }
+        if (!analysis.isDone()) {
+            analysis.run();
+        }
+        if (analysis.failure != null) {
+            LOGGER.warn("A specific reference could not be added; might not be too bad", analysis.failure);
+            return;
+        }
+        try {
+            analysis.classResolver.addBundle(analysis.bundle, analysis.packages);
+            analysis.componentListener.addBundle(analysis.bundle, analysis.injector);
+            analysis.pageMounter.addBundle(analysis.bundle, analysis.mounter);
         } catch (Throwable e) {
             LOGGER.warn("A specific reference could not be added; might not be too bad", e);
         }
@@ -135,6 +334,7 @@ public class BundleDelegatingExtensionTracker implements ServiceTrackerAggregato
     public void removeRelevantBundle(Bundle bundle) {
         synchronized (this) {
             relvantBundles.remove(bundle.getSymbolicName());
+            pendingBundles.remove(bundle);
             removeBundleFromAllServices(bundle);
         }
     }
@@ -148,4 +348,70 @@ public class BundleDelegatingExtensionTracker implements ServiceTrackerAggregato
         }
     }
 
+    /**
+     * The analysis of a bundle for the services of one application.
+     */
+    private static final class BundleAnalysis implements Runnable {
+
+        private final Bundle bundle;
+        private final ServiceReference reference;
+        private final BundleDelegatingClassResolver classResolver;
+        private final BundleDelegatingComponentInstanciationListener componentListener;
+        private final BundleDelegatingPageMounter pageMounter;
+
+        private volatile boolean done;
+        private Set<String> packages;
+        private BundleAnalysingComponentInstantiationListener injector;
+        private DefaultPageMounter mounter;
+        private Throwable failure;
+
+        private BundleAnalysis(Bundle bundle, ServiceReference reference, BundleDelegatingClassResolver classResolver,
+                BundleDelegatingComponentInstanciationListener componentListener,
+                BundleDelegatingPageMounter pageMounter) {
+            this.bundle = bundle;
+            this.reference = reference;
+            this.classResolver = classResolver;
+            this.componentListener = componentListener;
+            this.pageMounter = pageMounter;
+        }
+
+        public void run() {
+            try {
+                packages = classResolver.analyseBundle(bundle);
+                injector = componentListener.analyseBundle(bundle);
+                mounter = pageMounter.analyseBundle(bundle);
+            } catch (Throwable e) {
+                failure = e;
+            }
+            // publishes the fields above to the thread adding the bundle
+            done = true;
+        }
+
+        private boolean isDone() {
+            return done;
+        }
+    }
+
+    /**
+     * Unlike {@link ThreadPoolExecutor.CallerRunsPolicy} this also runs the task once the executor has been shut down,
+     * so that nobody waits for a task which is never run.
+     */
+    private static final class RunInCallerPolicy implements RejectedExecutionHandler {
+
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            runnable.run();
+        }
+    }
+
+    private static final class ScannerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "pax-wicket-scanner-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 }
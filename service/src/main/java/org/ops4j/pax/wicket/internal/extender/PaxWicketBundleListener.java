@@ -15,6 +15,13 @@
  */
 package org.ops4j.pax.wicket.internal.extender;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ops4j.pax.wicket.internal.injection.ContainerHandles;
+import org.ops4j.pax.wicket.internal.injection.LocatorDefinition;
+import org.ops4j.pax.wicket.internal.injection.registry.StickyServiceTrackers;
+import org.ops4j.pax.wicket.internal.util.ResolvedClassCache;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.Constants;
@@ -32,6 +39,19 @@ public class PaxWicketBundleListener implements BundleTrackerCustomizer {
         this.bundleDelegatingExtensionTracker = bundleDelegatingExtensionTracker;
     }
 
+    /**
+     * Scans all currently active relevant bundles in parallel before the bundle tracker hands them over one by one.
+     */
+    public void scanActiveBundles(Bundle[] bundles) {
+        List<Bundle> relevantBundles = new ArrayList<Bundle>();
+        for (Bundle bundle : bundles) {
+            if (bundle.getState() == Bundle.ACTIVE && isBundleRelavantForPaxWicket(bundle)) {
+                relevantBundles.add(bundle);
+            }
+        }
+        bundleDelegatingExtensionTracker.scanBundles(relevantBundles);
+    }
+
     private static boolean isBundleRelavantForPaxWicket(Bundle bundle) {
         String importedPackages = (String) bundle.getHeaders().get(Constants.IMPORT_PACKAGE);
         LOGGER.trace("Checking {} for import of org.apache.wicket.*", bundle.getSymbolicName());
@@ -78,6 +98,10 @@ public class PaxWicketBundleListener implements BundleTrackerCustomizer {
      * org.osgi.framework.BundleEvent, java.lang.Object)
      */
     public void removedBundle(Bundle bundle, BundleEvent event, Object object) {
+        StickyServiceTrackers.close(bundle);
+        ContainerHandles.close(bundle);
+        LocatorDefinition.removeAll(bundle);
+        ResolvedClassCache.invalidate(bundle);
         if (isBundleRelavantForPaxWicket(bundle)) {
             bundleDelegatingExtensionTracker.removeRelevantBundle(bundle);
             LOGGER.debug("{} is removed as a relevant bundle for pax wicket", bundle.getSymbolicName());
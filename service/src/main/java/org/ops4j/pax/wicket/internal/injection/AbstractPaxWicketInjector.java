@@ -19,26 +19,18 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.wicket.Component;
-import org.apache.wicket.MarkupContainer;
-import org.apache.wicket.Page;
-import org.apache.wicket.Session;
-import org.apache.wicket.authroles.authentication.AuthenticatedWebSession;
-import org.apache.wicket.markup.html.WebPage;
-import org.apache.wicket.markup.html.panel.Panel;
-import org.apache.wicket.protocol.http.WebSession;
-import org.ops4j.pax.wicket.api.PaxWicketBean;
 import org.ops4j.pax.wicket.api.PaxWicketInjector;
+import org.ops4j.pax.wicket.internal.injection.InjectionPlan.InjectedField;
 
+/**
+ * Base class for injectors; all field lookups are answered from the cached {@link InjectionPlan} of the classes.
+ */
 public abstract class AbstractPaxWicketInjector implements PaxWicketInjector {
 
     protected List<Field> getSingleLevelOfFields(Class<?> clazz) {
         List<Field> fields = new ArrayList<Field>();
-        for (Field field : clazz.getDeclaredFields()) {
-            if (!field.isAnnotationPresent(PaxWicketBean.class)) {
-                continue;
-            }
-            fields.add(field);
+        for (InjectedField field : InjectionPlan.forClass(clazz).getFields()) {
+            fields.add(field.getField());
         }
         return fields;
     }
@@ -47,25 +39,14 @@ public abstract class AbstractPaxWicketInjector implements PaxWicketInjector {
         List<Field> fields = new ArrayList<Field>();
 
         while (clazz != null && !isBoundaryClass(clazz)) {
-            for (Field field : clazz.getDeclaredFields()) {
-                if (!field.isAnnotationPresent(PaxWicketBean.class)) {
-                    continue;
-                }
-                fields.add(field);
-            }
+            fields.addAll(getSingleLevelOfFields(clazz));
             clazz = clazz.getSuperclass();
         }
         return fields;
     }
 
     protected boolean isBoundaryClass(Class<?> clazz) {
-        if (clazz.equals(WebPage.class) || clazz.equals(Page.class) || clazz.equals(Panel.class)
-                || clazz.equals(MarkupContainer.class) || clazz.equals(Component.class)
-                || clazz.equals(AuthenticatedWebSession.class) || clazz.equals(WebSession.class)
-                || clazz.equals(Session.class) || clazz.equals(Object.class)) {
-            return true;
-        }
-        return false;
+        return InjectionPlan.isBoundaryClass(clazz);
     }
 
     protected void setField(Object component, Field field, Object proxy) {
@@ -89,27 +70,10 @@ public abstract class AbstractPaxWicketInjector implements PaxWicketInjector {
     }
 
     protected int countComponentContainPaxWicketBeanAnnotatedFieldsHierachical(Class<?> component) {
-        Class<?> clazz = component;
-        int numberOfInjectionFields = 0;
-        while (clazz != null && !isBoundaryClass(clazz)) {
-            for (Field field : clazz.getDeclaredFields()) {
-                if (field.isAnnotationPresent(PaxWicketBean.class)) {
-                    numberOfInjectionFields++;
-                }
-            }
-            clazz = clazz.getSuperclass();
-        }
-        return numberOfInjectionFields;
+        return InjectionPlan.forClass(component).getHierarchicalFieldCount();
     }
 
     protected int countComponentContainPaxWicketBeanAnnotatedOneLevel(Class<?> component) {
-        Class<?> clazz = component;
-        int numberOfInjectionFields = 0;
-        for (Field field : clazz.getDeclaredFields()) {
-            if (field.isAnnotationPresent(PaxWicketBean.class)) {
-                numberOfInjectionFields++;
-            }
-        }
-        return numberOfInjectionFields;
+        return InjectionPlan.forClass(component).getFieldCount();
     }
 }
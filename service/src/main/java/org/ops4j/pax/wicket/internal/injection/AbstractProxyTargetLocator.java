@@ -21,7 +21,6 @@ import org.ops4j.pax.wicket.api.PaxWicketBean;
 import org.ops4j.pax.wicket.util.proxy.IProxyTargetLocator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.framework.ServiceReference;
 
 public abstract class AbstractProxyTargetLocator<Container> implements IProxyTargetLocator {
 
@@ -44,14 +43,7 @@ public abstract class AbstractProxyTargetLocator<Container> implements IProxyTar
     }
 
     public boolean hasApplicationContext() {
-        String filter = getApplicationContextFilter(bundleContext.getBundle().getSymbolicName());
-        ServiceReference[] references = null;
-        try {
-            references = bundleContext.getServiceReferences(getContainerClass().getName(), filter);
-        } catch (InvalidSyntaxException e) {
-            throw new IllegalStateException("not possible", e);
-        }
-        return references != null && references.length != 0;
+        return getContainers().length != 0;
     }
 
     public Object locateProxyTarget() {
@@ -59,31 +51,21 @@ public abstract class AbstractProxyTargetLocator<Container> implements IProxyTar
             throw new IllegalStateException("Bundle context is not allowed to be null");
         }
         ClassLoader oldClassloader = Thread.currentThread().getContextClassLoader();
-        String filter = getApplicationContextFilter(bundleContext.getBundle().getSymbolicName());
-        ServiceReference[] references = null;
-        try {
-            references = bundleContext.getServiceReferences(getContainerClass().getName(), filter);
-        } catch (InvalidSyntaxException e) {
-            throw new IllegalStateException("not possible", e);
-        }
-        if (references == null || references.length == 0) {
+        Object[] containers = getContainers();
+        if (containers.length == 0) {
             throw new IllegalStateException(String.format("Found zero service references for %s; this is not OK...",
                 bundleContext.getBundle().getSymbolicName()));
         }
         try {
             Thread.currentThread().setContextClassLoader(parent.getClassLoader());
             BeanReactor<Container> strategy = createStrategy();
-            for (ServiceReference serviceReference : references) {
+            for (Object container : containers) {
                 @SuppressWarnings("unchecked")
-                Container service = (Container) bundleContext.getService(serviceReference);
-                try {
-                    if (!strategy.containsBean(service)) {
-                        continue;
-                    }
-                    return strategy.createBean(service);
-                } finally {
-                    bundleContext.ungetService(serviceReference);
+                Container service = (Container) container;
+                if (!strategy.containsBean(service)) {
+                    continue;
                 }
+                return strategy.createBean(service);
             }
         } finally {
             Thread.currentThread().setContextClassLoader(oldClassloader);
@@ -94,6 +76,18 @@ public abstract class AbstractProxyTargetLocator<Container> implements IProxyTar
             parent.getName()));
     }
 
+    /**
+     * @return the containers of the bundle, shared with all other locators of the bundle (see {@link ContainerHandles})
+     */
+    private Object[] getContainers() {
+        String filter = getApplicationContextFilter(bundleContext.getBundle().getSymbolicName());
+        try {
+            return ContainerHandles.getContainers(bundleContext, getContainerClass().getName(), filter);
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalStateException("not possible", e);
+        }
+    }
+
     public Class getParent() {
         return parent;
     }
@@ -15,22 +15,27 @@
  */
 package org.ops4j.pax.wicket.internal.injection;
 
-import java.lang.reflect.Field;
-import java.net.URL;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import net.sf.cglib.proxy.Factory;
 
 import org.ops4j.pax.wicket.api.PaxWicketBean;
 import org.ops4j.pax.wicket.internal.OverwriteProxy;
+import org.ops4j.pax.wicket.internal.injection.InjectionPlan.InjectedField;
 import org.ops4j.pax.wicket.internal.injection.blueprint.BlueprintBeanProxyTargetLocator;
-import org.ops4j.pax.wicket.internal.injection.registry.OSGiServiceRegistryProxyTargetLocator;
 import org.ops4j.pax.wicket.internal.injection.spring.SpringBeanProxyTargetLocator;
+import org.ops4j.pax.wicket.internal.util.BundleClassIndex;
 import org.ops4j.pax.wicket.util.proxy.IProxyTargetLocator;
 import org.ops4j.pax.wicket.util.proxy.LazyInitProxyFactory;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,37 +44,81 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleAnalysingComponentInstantiationListener.class);
 
     private final BundleContext bundleContext;
-    private String bundleResources = "";
+    private final Set<String> bundleClasses;
+    private final Map<Class<?>, Boolean> injectionPossible = new WeakHashMap<Class<?>, Boolean>();
     private final String defaultInjectionSource;
 
-    @SuppressWarnings("unchecked")
+    private long scanDecisionGeneration = -1;
+    private boolean hasSpringContainer;
+    private boolean hasBlueprintContainer;
+
     public BundleAnalysingComponentInstantiationListener(BundleContext bundleContext, String defaultInjectionSource) {
         this.bundleContext = bundleContext;
         this.defaultInjectionSource = defaultInjectionSource;
-        Enumeration<URL> entries = bundleContext.getBundle().findEntries("/", "*.class", true);
-        if (entries == null) {
-            // bundle with no .class files (see PAXWICKET-305)
-            return;
+        bundleClasses = Collections.unmodifiableSet(collectClassNames(bundleContext.getBundle()));
+    }
+
+    /**
+     * Collects the names of all classes of the bundle. Classes in folders of the Bundle-ClassPath (e.g. bin/ when
+     * running from eclipse) are indexed with and without the folder prefix.
+     */
+    private static Set<String> collectClassNames(Bundle bundle) {
+        Set<String> classNames = new HashSet<String>();
+        List<String> classPathFolders = getClassPathFolders(bundle);
+        for (String path : BundleClassIndex.getClassEntries(bundle)) {
+            LOGGER.trace("Found entry {} in bundle {}", path, bundle.getSymbolicName());
+            classNames.add(path.replace('/', '.'));
+            for (String folder : classPathFolders) {
+                if (path.startsWith(folder)) {
+                    classNames.add(path.substring(folder.length()).replace('/', '.'));
+                }
+            }
         }
-        while (entries.hasMoreElements()) {
-            String urlRepresentation =
-                entries.nextElement().toExternalForm().replace("bundle://.+?/", "").replace('/', '.');
-            LOGGER.trace("Found entry {} in bundle {}", urlRepresentation, bundleContext.getBundle().getSymbolicName());
-            bundleResources += urlRepresentation;
+        return classNames;
+    }
+
+    private static List<String> getClassPathFolders(Bundle bundle) {
+        List<String> folders = new ArrayList<String>();
+        String classPath = (String) bundle.getHeaders().get(Constants.BUNDLE_CLASSPATH);
+        if (classPath == null) {
+            return folders;
         }
+        for (String entry : classPath.split(",")) {
+            String folder = entry.split(";")[0].trim();
+            if (folder.startsWith("/")) {
+                folder = folder.substring(1);
+            }
+            if (folder.length() == 0 || folder.equals(".") || folder.endsWith(".jar")) {
+                continue;
+            }
+            folders.add(folder.endsWith("/") ? folder : folder + "/");
+        }
+        return folders;
     }
 
     public boolean injectionPossible(Class<?> component) {
+        synchronized (injectionPossible) {
+            Boolean possible = injectionPossible.get(component);
+            if (possible != null) {
+                return possible;
+            }
+        }
         String name = component.getName();
-        LOGGER.debug("Try to find class {} in bundle {}", name, bundleContext.getBundle().getSymbolicName());
-        String searchString = name.replaceAll("\\$\\$.*", "");
-        searchString = searchString.replaceAll("\\$", "\\\\\\$"); // for nested and anonymous classes
-        if (bundleResources.matches(".*" + searchString + ".*")) {
+        int enhancerSuffix = name.indexOf("$$");
+        if (enhancerSuffix != -1) {
+            // generated subclasses (e.g. Foo$$EnhancerByCGLIB$$1234) are handled like their origin
+            name = name.substring(0, enhancerSuffix);
+        }
+        boolean possible = bundleClasses.contains(name);
+        if (possible) {
             LOGGER.trace("Found class {} in bundle {}", name, bundleContext.getBundle().getSymbolicName());
-            return true;
+        } else {
+            LOGGER.trace("Class {} not available in bundle {}", name, bundleContext.getBundle().getSymbolicName());
         }
-        LOGGER.trace("Class {} not available in bundle {}", name, bundleContext.getBundle().getSymbolicName());
-        return false;
+        synchronized (injectionPossible) {
+            injectionPossible.put(component, possible);
+        }
+        return possible;
     }
 
     public void inject(Object component, Class<?> toHandle) {
@@ -89,94 +138,93 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
             }
             Thread.currentThread().setContextClassLoader(realClass.getClassLoader());
 
-            List<Field> fields = getSingleLevelOfFields(realClass);
-            for (Field field : fields) {
-                if (!field.isAnnotationPresent(PaxWicketBean.class)) {
-                    continue;
-                }
-                PaxWicketBean annotation = field.getAnnotation(PaxWicketBean.class);
-                if (!annotation.injectionSource().equals(PaxWicketBean.INJECTION_SOURCE_UNDEFINED)) {
-                    injectionSource = annotation.injectionSource();
+            for (InjectedField field : InjectionPlan.forClass(realClass).getFields()) {
+                String fieldInjectionSource = field.getInjectionSource();
+                if (fieldInjectionSource != null) {
+                    injectionSource = fieldInjectionSource;
                 }
                 Object proxy = createProxy(field, realClass, overwrites, injectionSource);
-                setField(component, field, proxy);
+                setField(component, field.getField(), proxy);
             }
         } finally {
             Thread.currentThread().setContextClassLoader(currentClassLoader);
         }
     }
 
-    private Object createProxy(Field field, Class<?> page, Map<String, String> overwrites, String injectionSource) {
-        return LazyInitProxyFactory.createProxy(getBeanType(field),
+    private Object createProxy(InjectedField field, Class<?> page, Map<String, String> overwrites,
+            String injectionSource) {
+        return LazyInitProxyFactory.createProxy(field.getBeanType(),
             createProxyTargetLocator(field, page, overwrites, injectionSource));
     }
 
-    private IProxyTargetLocator createProxyTargetLocator(Field field, Class<?> page, Map<String, String> overwrites,
-            String injectionSource) {
+    private IProxyTargetLocator createProxyTargetLocator(InjectedField field, Class<?> page,
+            Map<String, String> overwrites, String injectionSource) {
         if (PaxWicketBean.INJECTION_SOURCE_NULL.equals(injectionSource)
                 || PaxWicketBean.INJECTION_SOURCE_UNDEFINED.equals(injectionSource)) {
             return null;
         }
-        PaxWicketBean annotation = field.getAnnotation(PaxWicketBean.class);
-        AbstractProxyTargetLocator<?> springBeanTargetLocator =
-            new SpringBeanProxyTargetLocator(bundleContext, annotation, getBeanType(field), page, overwrites);
-        if (PaxWicketBean.INJECTION_SOURCE_SPRING.equals(injectionSource)) {
-            return springBeanTargetLocator;
-        }
-        AbstractProxyTargetLocator<?> blueprintBeanTargetLocator =
-            new BlueprintBeanProxyTargetLocator(bundleContext, annotation, getBeanType(field), page, overwrites);
-        if (PaxWicketBean.INJECTION_SOURCE_BLUEPRINT.equals(injectionSource)) {
-            return blueprintBeanTargetLocator;
+        if (PaxWicketBean.INJECTION_SOURCE_SCAN.equals(injectionSource)) {
+            injectionSource = resolveScanInjectionSource();
         }
-        if (PaxWicketBean.INJECTION_SOURCE_SERVICE_REGISTRY.equals(injectionSource)) {
-            return new OSGiServiceRegistryProxyTargetLocator(bundleContext, annotation, getBeanType(field), page);
+        if (LocatorDefinition.isSupported(injectionSource)) {
+            return LocatorDefinition.intern(bundleContext, field.getField(), page, overwrites, injectionSource);
         }
-        if (PaxWicketBean.INJECTION_SOURCE_SCAN.equals(injectionSource)) {
-            boolean springBeanTargetLocatorHasApplicationContext =
-                hasApplicationContextDelegation(springBeanTargetLocator);
-            boolean blueprintBeanTargetLocatorHasApplicationContext =
-                hasApplicationContextDelegation(blueprintBeanTargetLocator);
-            if (springBeanTargetLocatorHasApplicationContext && blueprintBeanTargetLocatorHasApplicationContext) {
+        throw new IllegalStateException(String.format("No injection source found for field [%s] in class [%s]",
+            field.getField().getName(), page.getName()));
+    }
+
+    /**
+     * Decides whether {@link PaxWicketBean#INJECTION_SOURCE_SCAN} means spring or blueprint for this bundle. The
+     * decision is taken once and only taken again after the containers changed (see
+     * {@link ContainerHandles#getGeneration()}).
+     */
+    private String resolveScanInjectionSource() {
+        synchronized (this) {
+            long generation = ContainerHandles.getGeneration();
+            if (scanDecisionGeneration != generation) {
+                hasSpringContainer = hasApplicationContextDelegation(PaxWicketBean.INJECTION_SOURCE_SPRING);
+                hasBlueprintContainer = hasApplicationContextDelegation(PaxWicketBean.INJECTION_SOURCE_BLUEPRINT);
+                scanDecisionGeneration = generation;
+            }
+            if (hasSpringContainer && hasBlueprintContainer) {
                 throw new IllegalStateException(
                     "INJECTION_SOURCE_SCAN cannot be used if spring & blueprint context exist.");
             }
-            if (!springBeanTargetLocatorHasApplicationContext && !blueprintBeanTargetLocatorHasApplicationContext) {
+            if (!hasSpringContainer && !hasBlueprintContainer) {
                 throw new IllegalStateException(
                     "INJECTION_SOURCE_SCAN cannot be used with neither blueprint nor spring context");
             }
-            if (springBeanTargetLocatorHasApplicationContext) {
-                return springBeanTargetLocator;
-            }
-            if (blueprintBeanTargetLocatorHasApplicationContext) {
-                return blueprintBeanTargetLocator;
-            }
+            return hasSpringContainer ? PaxWicketBean.INJECTION_SOURCE_SPRING
+                    : PaxWicketBean.INJECTION_SOURCE_BLUEPRINT;
         }
-        throw new IllegalStateException(String.format("No injection source found for field [%s] in class [%s]",
-            field.getName(), page.getName()));
     }
 
     /**
-     * @param locator
-     * @return <code>locator.hasApplicationContext()</code> if locator is not <code>null</code>, otherwhise
-     *         <code>false</code>. If the call throws any exception <code>false</code> is returned also
+     * @param injectionSource either spring or blueprint
+     * @return <code>locator.hasApplicationContext()</code> for a locator of the injection source. If the call throws
+     *         any exception <code>false</code> is returned also
      */
-    private boolean hasApplicationContextDelegation(AbstractProxyTargetLocator<?> locator) {
-        if (locator != null) {
-            try {
-                return locator.hasApplicationContext();
-            } catch (Exception e) {
-                LOGGER
-                    .debug(
-                        "Can't determine hasApplicationContext for locator {}, an optional import might not resolve, return false",
-                        locator.getClass().getName(), e);
-            } catch (NoClassDefFoundError e) {
-                // This is really nasty, but if wen don't catch this we can not catch java.lang.ClassNotFoundException
-                // wich are the root of the cause!
-                LOGGER
-                    .debug(
-                        "Can't determine hasApplicationContext for locator {}, an optional import might not resolve, return false",
-                        locator.getClass().getName(), e);
+    private boolean hasApplicationContextDelegation(String injectionSource) {
+        try {
+            AbstractProxyTargetLocator<?> locator;
+            if (PaxWicketBean.INJECTION_SOURCE_SPRING.equals(injectionSource)) {
+                locator = new SpringBeanProxyTargetLocator(bundleContext, null, null, null, null);
+            } else {
+                locator = new BlueprintBeanProxyTargetLocator(bundleContext, null, null, null, null);
             }
+            return locator.hasApplicationContext();
+        } catch (Exception e) {
+            LOGGER
+                .debug(
+                    "Can't determine hasApplicationContext for {}, an optional import might not resolve, return false",
+                    injectionSource, e);
+        } catch (NoClassDefFoundError e) {
+            // This is really nasty, but if wen don't catch this we can not catch java.lang.ClassNotFoundException
+            // wich are the root of the cause!
+            LOGGER
+                .debug(
+                    "Can't determine hasApplicationContext for {}, an optional import might not resolve, return false",
+                    injectionSource, e);
         }
         return false;
     }
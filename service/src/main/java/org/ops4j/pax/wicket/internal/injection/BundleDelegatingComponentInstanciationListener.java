@@ -17,23 +17,25 @@ package org.ops4j.pax.wicket.internal.injection;
 
 import java.util.Collection;
 import java.util.Dictionary;
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ops4j.pax.wicket.api.Constants;
 import org.ops4j.pax.wicket.api.NoBeanAvailableForInjectionException;
 import org.ops4j.pax.wicket.api.PaxWicketBean;
 import org.ops4j.pax.wicket.api.PaxWicketInjector;
+import org.ops4j.pax.wicket.api.SelectivePaxWicketInjector;
 import org.ops4j.pax.wicket.internal.InternalBundleDelegationProvider;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleReference;
 import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class BundleDelegatingComponentInstanciationListener implements PaxWicketInjector,
-        InternalBundleDelegationProvider {
+public class BundleDelegatingComponentInstanciationListener implements SelectivePaxWicketInjector,
+        InternalBundleDelegationProvider<BundleAnalysingComponentInstantiationListener> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleDelegatingComponentInstanciationListener.class);
 
@@ -42,8 +44,9 @@ public class BundleDelegatingComponentInstanciationListener implements PaxWicket
     private final String injectionSource = PaxWicketBean.INJECTION_SOURCE_SCAN;
 
     private Map<String, BundleAnalysingComponentInstantiationListener> listeners =
-        new HashMap<String, BundleAnalysingComponentInstantiationListener>();
+        new ConcurrentHashMap<String, BundleAnalysingComponentInstantiationListener>();
     private ServiceRegistration serviceRegistration;
+    private Dictionary<String, String> properties;
 
     public BundleDelegatingComponentInstanciationListener(BundleContext paxWicketBundleContext, String applicationName) {
         this.paxWicketBundleContext = paxWicketBundleContext;
@@ -55,9 +58,10 @@ public class BundleDelegatingComponentInstanciationListener implements PaxWicket
     }
 
     public void start() {
-        Dictionary<String, String> props = new Hashtable<String, String>();
-        props.put(Constants.APPLICATION_NAME, applicationName);
-        serviceRegistration = paxWicketBundleContext.registerService(PaxWicketInjector.class.getName(), this, props);
+        properties = new Hashtable<String, String>();
+        properties.put(Constants.APPLICATION_NAME, applicationName);
+        serviceRegistration =
+            paxWicketBundleContext.registerService(PaxWicketInjector.class.getName(), this, properties);
     }
 
     public void stop() {
@@ -69,11 +73,19 @@ public class BundleDelegatingComponentInstanciationListener implements PaxWicket
     }
 
     public void addBundle(Bundle bundle) {
+        addBundle(bundle, analyseBundle(bundle));
+    }
+
+    public BundleAnalysingComponentInstantiationListener analyseBundle(Bundle bundle) {
+        return new BundleAnalysingComponentInstantiationListener(bundle.getBundleContext(), injectionSource);
+    }
+
+    public void addBundle(Bundle bundle, BundleAnalysingComponentInstantiationListener listener) {
         if (serviceRegistration == null) {
             throw new IllegalStateException("Cannot add any bundle to listener while not started.");
         }
-        listeners.put(bundle.getSymbolicName(),
-            new BundleAnalysingComponentInstantiationListener(bundle.getBundleContext(), injectionSource));
+        listeners.put(bundle.getSymbolicName(), listener);
+        notifyBundlesChanged();
     }
 
     public void removeBundle(Bundle bundle) {
@@ -81,19 +93,53 @@ public class BundleDelegatingComponentInstanciationListener implements PaxWicket
             throw new IllegalStateException("Cannot add any bundle to listener while not started.");
         }
         listeners.remove(bundle.getSymbolicName());
+        notifyBundlesChanged();
+    }
+
+    /**
+     * Fires a modified event for the registration, telling the {@link DelegatingComponentInstanciationListener} to drop
+     * the classes routed to this injector.
+     */
+    private void notifyBundlesChanged() {
+        try {
+            serviceRegistration.setProperties(properties);
+        } catch (IllegalStateException e) {
+            LOGGER.trace("Injector for application {} had been unregistered meanwhile", applicationName);
+        }
+    }
+
+    public boolean canInject(Class<?> toHandle) {
+        return findAnalyser(toHandle) != null;
     }
 
     public void inject(Object toInject, Class<?> toHandle) {
-        synchronized (listeners) {
-            Collection<BundleAnalysingComponentInstantiationListener> values = listeners.values();
-            for (BundleAnalysingComponentInstantiationListener analyser : values) {
-                if (analyser.injectionPossible(toHandle)) {
-                    analyser.inject(toInject, toHandle);
-                    return;
-                }
+        BundleAnalysingComponentInstantiationListener analyser = findAnalyser(toHandle);
+        if (analyser == null) {
+            throw new NoBeanAvailableForInjectionException();
+        }
+        analyser.inject(toInject, toHandle);
+    }
+
+    /**
+     * The classloader of a class loaded from a bundle (and of the subclasses generated for it by cglib) identifies the
+     * bundle; only classes loaded otherwise require asking every analyser.
+     */
+    private BundleAnalysingComponentInstantiationListener findAnalyser(Class<?> toHandle) {
+        ClassLoader classLoader = toHandle.getClassLoader();
+        if (classLoader instanceof BundleReference) {
+            String symbolicName = ((BundleReference) classLoader).getBundle().getSymbolicName();
+            BundleAnalysingComponentInstantiationListener analyser = listeners.get(symbolicName);
+            if (analyser != null && analyser.injectionPossible(toHandle)) {
+                return analyser;
+            }
+        }
+        Collection<BundleAnalysingComponentInstantiationListener> values = listeners.values();
+        for (BundleAnalysingComponentInstantiationListener analyser : values) {
+            if (analyser.injectionPossible(toHandle)) {
+                return analyser;
             }
         }
-        throw new NoBeanAvailableForInjectionException();
+        return null;
     }
 
 }
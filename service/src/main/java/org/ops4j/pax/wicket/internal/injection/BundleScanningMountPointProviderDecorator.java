@@ -15,13 +15,13 @@
  */
 package org.ops4j.pax.wicket.internal.injection;
 
-import java.net.URL;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
 
 import org.apache.wicket.Page;
 import org.ops4j.pax.wicket.api.PaxWicketMountPoint;
+import org.ops4j.pax.wicket.internal.util.BundleClassIndex;
+import org.ops4j.pax.wicket.internal.util.MountPointScanner;
 import org.ops4j.pax.wicket.util.DefaultPageMounter;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -46,8 +46,7 @@ public class BundleScanningMountPointProviderDecorator implements InjectionAware
 
     public void start() throws Exception {
         Bundle bundleToScan = bundleContext.getBundle();
-        Enumeration<?> findEntries = bundleToScan.findEntries("", "*.class", true);
-        if (findEntries == null) {
+        if (BundleClassIndex.getClassEntries(bundleToScan).isEmpty()) {
             LOGGER.error(new StringBuilder()
                 .append("We've found an error which you should really give a shot but which does not ")
                 .append("interrupt your runtime. Nevertheless we assume that this one is definitely an ")
@@ -58,9 +57,8 @@ public class BundleScanningMountPointProviderDecorator implements InjectionAware
                 .toString(), bundleToScan.getSymbolicName());
             return;
         }
-        while (findEntries.hasMoreElements()) {
-            URL object = (URL) findEntries.nextElement();
-            String className = object.getFile().substring(1, object.getFile().length() - 6).replaceAll("/", ".");
+        DefaultPageMounter mountPointRegistration = new DefaultPageMounter(applicationName, bundleContext);
+        for (String className : MountPointScanner.findMountPointCandidates(bundleToScan)) {
             Class<?> candidateClass = bundleToScan.loadClass(className);
             if (!Page.class.isAssignableFrom(candidateClass)) {
                 continue;
@@ -69,12 +67,13 @@ public class BundleScanningMountPointProviderDecorator implements InjectionAware
             Class<? extends Page> pageClass = (Class<? extends Page>) candidateClass;
             PaxWicketMountPoint mountPoint = pageClass.getAnnotation(PaxWicketMountPoint.class);
             if (mountPoint != null) {
-                DefaultPageMounter mountPointRegistration = new DefaultPageMounter(applicationName, bundleContext);
                 mountPointRegistration.addMountPoint(mountPoint.mountPoint(), pageClass);
-                mountPointRegistration.register();
-                mountPointRegistrations.add(mountPointRegistration);
             }
         }
+        if (!mountPointRegistration.getMountPoints().isEmpty()) {
+            mountPointRegistration.register();
+            mountPointRegistrations.add(mountPointRegistration);
+        }
     }
 
     public void stop() throws Exception {
@@ -31,6 +31,10 @@ public class ComponentInstantiationListenerFacade implements IComponentInstantia
     }
 
     public void onInstantiation(Component component) {
+        if (InjectionPlan.forClass(component.getClass()).isEmpty()) {
+            // nothing to inject (e.g. Label or Link); spare the injectors any reflection
+            return;
+        }
         toWrap.inject(component, component.getClass());
     }
 
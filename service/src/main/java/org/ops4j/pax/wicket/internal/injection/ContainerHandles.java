@@ -0,0 +1,192 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The containers (spring application contexts, blueprint containers) of a bundle, shared by all proxy target locators
+ * of the bundle. The containers are looked up once and kept until a service event for one of them (or a new one)
+ * arrives, so locating a bean does not require any registry call as long as nothing changed.
+ */
+public final class ContainerHandles {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContainerHandles.class);
+
+    private static final Map<Long, Map<String, ContainerHandle>> HANDLES =
+        new HashMap<Long, Map<String, ContainerHandle>>();
+
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private ContainerHandles() {
+        // static utility
+    }
+
+    /**
+     * @return the containers of the given class registered by the bundle and matching the filter
+     */
+    static Object[] getContainers(BundleContext bundleContext, String containerClass, String filter)
+        throws InvalidSyntaxException {
+        return getHandle(bundleContext, containerClass, filter).getContainers();
+    }
+
+    /**
+     * @return a counter increased whenever a container appears, disappears or changes; decisions based on the
+     *         available containers are valid as long as it does not change
+     */
+    public static long getGeneration() {
+        return GENERATION.get();
+    }
+
+    private static ContainerHandle getHandle(BundleContext bundleContext, String containerClass, String filter)
+        throws InvalidSyntaxException {
+        Long bundleId = bundleContext.getBundle().getBundleId();
+        String key = containerClass + filter;
+        ContainerHandle staleHandle = null;
+        ContainerHandle handle;
+        synchronized (HANDLES) {
+            Map<String, ContainerHandle> bundleHandles = HANDLES.get(bundleId);
+            if (bundleHandles == null) {
+                bundleHandles = new HashMap<String, ContainerHandle>();
+                HANDLES.put(bundleId, bundleHandles);
+            }
+            handle = bundleHandles.get(key);
+            if (handle != null && handle.bundleContext == bundleContext) {
+                return handle;
+            }
+            // either the first lookup or the bundle had been restarted in between
+            staleHandle = handle;
+            handle = new ContainerHandle(bundleContext, containerClass, filter);
+            bundleContext.addServiceListener(handle, filter);
+            bundleHandles.put(key, handle);
+        }
+        if (staleHandle != null) {
+            staleHandle.close();
+        }
+        return handle;
+    }
+
+    /**
+     * Releases the containers of a bundle; called when the bundle stops.
+     */
+    public static void close(Bundle bundle) {
+        Map<String, ContainerHandle> bundleHandles;
+        synchronized (HANDLES) {
+            bundleHandles = HANDLES.remove(bundle.getBundleId());
+        }
+        if (bundleHandles != null) {
+            close(bundleHandles.values());
+            GENERATION.incrementAndGet();
+        }
+    }
+
+    /**
+     * Releases all containers; called when pax-wicket stops.
+     */
+    public static void closeAll() {
+        List<ContainerHandle> handles = new ArrayList<ContainerHandle>();
+        synchronized (HANDLES) {
+            for (Map<String, ContainerHandle> bundleHandles : HANDLES.values()) {
+                handles.addAll(bundleHandles.values());
+            }
+            HANDLES.clear();
+        }
+        close(handles);
+    }
+
+    private static void close(Iterable<ContainerHandle> handles) {
+        for (ContainerHandle handle : handles) {
+            handle.close();
+        }
+    }
+
+    private static final class ContainerHandle implements ServiceListener {
+
+        private final BundleContext bundleContext;
+        private final String containerClass;
+        private final String filter;
+
+        private ServiceReference[] references;
+        private Object[] containers;
+
+        private ContainerHandle(BundleContext bundleContext, String containerClass, String filter) {
+            this.bundleContext = bundleContext;
+            this.containerClass = containerClass;
+            this.filter = filter;
+        }
+
+        private synchronized Object[] getContainers() throws InvalidSyntaxException {
+            if (containers == null) {
+                ServiceReference[] found = bundleContext.getServiceReferences(containerClass, filter);
+                List<ServiceReference> usedReferences = new ArrayList<ServiceReference>();
+                List<Object> services = new ArrayList<Object>();
+                for (int i = 0; found != null && i < found.length; i++) {
+                    Object service = bundleContext.getService(found[i]);
+                    if (service != null) {
+                        usedReferences.add(found[i]);
+                        services.add(service);
+                    }
+                }
+                LOGGER.debug("Found {} containers for filter {}", services.size(), filter);
+                references = usedReferences.toArray(new ServiceReference[usedReferences.size()]);
+                containers = services.toArray();
+            }
+            return containers;
+        }
+
+        public void serviceChanged(ServiceEvent event) {
+            invalidate();
+            GENERATION.incrementAndGet();
+        }
+
+        private synchronized void invalidate() {
+            if (references != null) {
+                for (ServiceReference reference : references) {
+                    try {
+                        bundleContext.ungetService(reference);
+                    } catch (IllegalStateException e) {
+                        // bundle context is no longer valid, the framework already released the service
+                        LOGGER.trace("Ignore exception while releasing container", e);
+                    }
+                }
+            }
+            references = null;
+            containers = null;
+        }
+
+        private void close() {
+            try {
+                bundleContext.removeServiceListener(this);
+            } catch (IllegalStateException e) {
+                LOGGER.trace("Ignore exception while removing listener", e);
+            }
+            invalidate();
+        }
+    }
+}
@@ -20,14 +20,18 @@ import static org.ops4j.lang.NullArgumentException.validateNotNull;
 import static org.ops4j.pax.wicket.api.Constants.APPLICATION_NAME;
 import static org.osgi.framework.Constants.OBJECTCLASS;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sf.cglib.proxy.Factory;
 
 import org.ops4j.pax.wicket.api.InjectorHolder;
 import org.ops4j.pax.wicket.api.NoBeanAvailableForInjectionException;
 import org.ops4j.pax.wicket.api.PaxWicketInjector;
+import org.ops4j.pax.wicket.api.SelectivePaxWicketInjector;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
@@ -36,6 +40,11 @@ import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Injects all levels of an object with the {@link PaxWicketInjector} services registered for an application. The
+ * injector responsible for a level is remembered in a routing table which is dropped whenever the registered injectors
+ * change.
+ */
 public final class DelegatingComponentInstanciationListener extends AbstractPaxWicketInjector {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DelegatingComponentInstanciationListener.class);
@@ -43,6 +52,12 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
     private final BundleContext context;
     private final String applicationName;
     private final List<PaxWicketInjector> resolvers;
+    private final ConcurrentMap<Class<?>, PaxWicketInjector> routes;
+    /**
+     * Incremented on every change of the injectors so that an injection running concurrently to a change does not
+     * store an outdated route.
+     */
+    private final AtomicLong generation = new AtomicLong();
 
     private ComponentInstanciationListenerTracker tracker;
 
@@ -52,7 +67,8 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
         validateNotEmpty(applicationName, "applicationName");
         this.context = context;
         this.applicationName = applicationName;
-        resolvers = new ArrayList<PaxWicketInjector>();
+        resolvers = new CopyOnWriteArrayList<PaxWicketInjector>();
+        routes = new ConcurrentHashMap<Class<?>, PaxWicketInjector>();
 
         InjectorHolder.setInjector(applicationName, this);
     }
@@ -88,36 +104,27 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
             return;
         }
         int handledAnnotations = 0;
-        synchronized (resolvers) {
-            Class<?> currentAnalysingClass = toHandle;
-            boolean handledFactory = false;
-            if (Factory.class.isInstance(toInject)) {
-                handledFactory = true;
+        Class<?> currentAnalysingClass = toHandle;
+        boolean handledFactory = false;
+        if (Factory.class.isInstance(toInject)) {
+            handledFactory = true;
+        }
+        while (!isBoundaryClass(currentAnalysingClass)) {
+            int levelAnnotations;
+            if (handledFactory) {
+                levelAnnotations = countComponentContainPaxWicketBeanAnnotatedOneLevel(currentAnalysingClass
+                    .getSuperclass());
+            } else {
+                levelAnnotations = countComponentContainPaxWicketBeanAnnotatedOneLevel(currentAnalysingClass);
             }
-            while (!isBoundaryClass(currentAnalysingClass)) {
-                for (PaxWicketInjector listener : resolvers) {
-                    try {
-                        listener.inject(toInject, currentAnalysingClass);
-                        // if we reach here the bean had been injected correctly
-                        if (handledFactory) {
-                            handledAnnotations +=
-                                countComponentContainPaxWicketBeanAnnotatedOneLevel(currentAnalysingClass
-                                    .getSuperclass());
-                        } else {
-                            handledAnnotations +=
-                                countComponentContainPaxWicketBeanAnnotatedOneLevel(currentAnalysingClass);
-                        }
-                        // once we've found it we could take the next level
-                        break;
-                    } catch (NoBeanAvailableForInjectionException e) {
-                        // well, not found... retry with the next listener
-                    }
-                }
+            // levels without any annotated field have nothing to inject
+            if (levelAnnotations != 0 && injectLevel(toInject, currentAnalysingClass)) {
+                handledAnnotations += levelAnnotations;
+            }
+            currentAnalysingClass = currentAnalysingClass.getSuperclass();
+            if (handledFactory) {
                 currentAnalysingClass = currentAnalysingClass.getSuperclass();
-                if (handledFactory) {
-                    currentAnalysingClass = currentAnalysingClass.getSuperclass();
-                    handledFactory = false;
-                }
+                handledFactory = false;
             }
         }
         if (handledAnnotations != foundAnnotation) {
@@ -127,6 +134,58 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
         }
     }
 
+    /**
+     * Injects a single level using the routed injector or, if none is known, the first injector able to handle it.
+     * 
+     * @return <code>true</code> if an injector handled the level
+     */
+    private boolean injectLevel(Object toInject, Class<?> level) {
+        PaxWicketInjector route = routes.get(level);
+        if (route != null) {
+            if (inject(route, toInject, level)) {
+                return true;
+            }
+            routes.remove(level, route);
+        }
+        long startGeneration = generation.get();
+        for (PaxWicketInjector listener : resolvers) {
+            if (listener == route) {
+                continue;
+            }
+            if (listener instanceof SelectivePaxWicketInjector
+                    && !((SelectivePaxWicketInjector) listener).canInject(level)) {
+                continue;
+            }
+            if (inject(listener, toInject, level)) {
+                routes.put(level, listener);
+                if (generation.get() != startGeneration) {
+                    routes.remove(level, listener);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean inject(PaxWicketInjector listener, Object toInject, Class<?> level) {
+        try {
+            listener.inject(toInject, level);
+            // if we reach here the bean had been injected correctly
+            return true;
+        } catch (NoBeanAvailableForInjectionException e) {
+            // well, not found... retry with the next listener
+            return false;
+        }
+    }
+
+    /**
+     * Drops all routes; called whenever the registered injectors (or their content) change.
+     */
+    private void injectorsChanged() {
+        generation.incrementAndGet();
+        routes.clear();
+    }
+
     private final class ComponentInstanciationListenerTracker extends ServiceTracker {
 
         private final String m_applicationName;
@@ -139,9 +198,8 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
         @Override
         public final Object addingService(ServiceReference reference) {
             PaxWicketInjector resolver = (PaxWicketInjector) super.addingService(reference);
-            synchronized (resolvers) {
-                resolvers.add(resolver);
-            }
+            resolvers.add(resolver);
+            injectorsChanged();
             return resolver;
         }
 
@@ -154,12 +212,14 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
                     if (!nameClass.isArray()) {
                         String appName = (String) objAppName;
                         if (m_applicationName.equals(appName)) {
+                            injectorsChanged();
                             return;
                         }
                     } else {
                         String[] appNames = (String[]) objAppName;
                         for (String appName : appNames) {
                             if (m_applicationName.equals(appName)) {
+                                injectorsChanged();
                                 return;
                             }
                         }
@@ -172,9 +232,8 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
         @Override
         public final void removedService(ServiceReference reference, Object service) {
             PaxWicketInjector resolver = (PaxWicketInjector) service;
-            synchronized (resolvers) {
-                resolvers.remove(resolver);
-            }
+            resolvers.remove(resolver);
+            injectorsChanged();
             super.removedService(reference, service);
         }
     }
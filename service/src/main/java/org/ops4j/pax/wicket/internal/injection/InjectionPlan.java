@@ -0,0 +1,246 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.Page;
+import org.apache.wicket.Session;
+import org.apache.wicket.authroles.authentication.AuthenticatedWebSession;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.panel.Panel;
+import org.apache.wicket.protocol.http.WebSession;
+import org.ops4j.pax.wicket.api.PaxWicketBean;
+
+/**
+ * Immutable description of the {@link PaxWicketBean} annotated fields of a class, calculated once per class. A plan
+ * describes the fields declared by its class and knows how many annotated fields the whole hierarchy (up to the wicket
+ * boundary classes) contains.
+ * <p/>
+ * Plans are cached weakly keyed by class. Plans with fields are only softly referenced since their fields reference the
+ * class again; plans without fields are shared and held strongly, which makes the check for the (most common)
+ * components without any injection a simple lookup. Lookups do not lock; keys of unloaded classes are purged whenever
+ * a plan is added.
+ */
+final class InjectionPlan {
+
+    private static final InjectionPlan EMPTY = new InjectionPlan(Collections.<InjectedField> emptyList(), 0);
+
+    /**
+     * Plans keyed by {@link ClassKey}, looked up by {@link LookupKey}.
+     */
+    private static final ConcurrentMap<Object, Object> PLANS = new ConcurrentHashMap<Object, Object>();
+    private static final ReferenceQueue<Class<?>> STALE_KEYS = new ReferenceQueue<Class<?>>();
+
+    private final List<InjectedField> fields;
+    private final int hierarchicalFieldCount;
+
+    private InjectionPlan(List<InjectedField> fields, int hierarchicalFieldCount) {
+        this.fields = fields;
+        this.hierarchicalFieldCount = hierarchicalFieldCount;
+    }
+
+    /**
+     * @return the plan for the given class; boundary classes (and <code>null</code>) always have an empty plan
+     */
+    static InjectionPlan forClass(Class<?> clazz) {
+        if (clazz == null || isBoundaryClass(clazz)) {
+            return EMPTY;
+        }
+        InjectionPlan plan = lookup(clazz);
+        if (plan != null) {
+            return plan;
+        }
+        plan = createPlan(clazz);
+        expungeStaleKeys();
+        PLANS.put(new ClassKey(clazz), plan == EMPTY ? EMPTY : new SoftReference<InjectionPlan>(plan));
+        return plan;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static InjectionPlan lookup(Class<?> clazz) {
+        Object cached = PLANS.get(new LookupKey(clazz));
+        if (cached instanceof SoftReference) {
+            return ((SoftReference<InjectionPlan>) cached).get();
+        }
+        return (InjectionPlan) cached;
+    }
+
+    private static InjectionPlan createPlan(Class<?> clazz) {
+        List<InjectedField> fields = new ArrayList<InjectedField>();
+        for (Field field : clazz.getDeclaredFields()) {
+            PaxWicketBean annotation = field.getAnnotation(PaxWicketBean.class);
+            if (annotation != null) {
+                fields.add(new InjectedField(field, annotation));
+            }
+        }
+        int hierarchicalFieldCount = fields.size() + forClass(clazz.getSuperclass()).hierarchicalFieldCount;
+        if (hierarchicalFieldCount == 0) {
+            return EMPTY;
+        }
+        return new InjectionPlan(Collections.unmodifiableList(fields), hierarchicalFieldCount);
+    }
+
+    private static void expungeStaleKeys() {
+        Reference<? extends Class<?>> staleKey;
+        while ((staleKey = STALE_KEYS.poll()) != null) {
+            PLANS.remove(staleKey);
+        }
+    }
+
+    static boolean isBoundaryClass(Class<?> clazz) {
+        return clazz.equals(WebPage.class) || clazz.equals(Page.class) || clazz.equals(Panel.class)
+                || clazz.equals(MarkupContainer.class) || clazz.equals(Component.class)
+                || clazz.equals(AuthenticatedWebSession.class) || clazz.equals(WebSession.class)
+                || clazz.equals(Session.class) || clazz.equals(Object.class);
+    }
+
+    /**
+     * @return the annotated fields declared by the class of this plan
+     */
+    List<InjectedField> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the number of annotated fields declared by the class of this plan
+     */
+    int getFieldCount() {
+        return fields.size();
+    }
+
+    /**
+     * @return the number of annotated fields of the class of this plan and all its super classes
+     */
+    int getHierarchicalFieldCount() {
+        return hierarchicalFieldCount;
+    }
+
+    /**
+     * @return <code>true</code> if neither the class nor one of its super classes contain any annotated field
+     */
+    boolean isEmpty() {
+        return hierarchicalFieldCount == 0;
+    }
+
+    /**
+     * Weak key of a cached plan; equal to the keys of the same class as long as the class is not unloaded.
+     */
+    private static final class ClassKey extends WeakReference<Class<?>> {
+
+        private final int hashCode;
+
+        private ClassKey(Class<?> clazz) {
+            super(clazz, STALE_KEYS);
+            hashCode = System.identityHashCode(clazz);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) {
+                return true;
+            }
+            Class<?> clazz = get();
+            if (clazz == null) {
+                return false;
+            }
+            if (other instanceof ClassKey) {
+                return clazz == ((ClassKey) other).get();
+            }
+            return other instanceof LookupKey && clazz == ((LookupKey) other).clazz;
+        }
+    }
+
+    /**
+     * Short living key to look up a plan, which unlike a {@link ClassKey} is no reference object.
+     */
+    private static final class LookupKey {
+
+        private final Class<?> clazz;
+
+        private LookupKey(Class<?> clazz) {
+            this.clazz = clazz;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(clazz);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ClassKey && clazz == ((ClassKey) other).get();
+        }
+    }
+
+    /**
+     * A single {@link PaxWicketBean} annotated field, already made accessible.
+     */
+    static final class InjectedField {
+
+        private final Field field;
+        private final PaxWicketBean annotation;
+        private final String injectionSource;
+
+        private InjectedField(Field field, PaxWicketBean annotation) {
+            if (!field.isAccessible()) {
+                field.setAccessible(true);
+            }
+            this.field = field;
+            this.annotation = annotation;
+            if (PaxWicketBean.INJECTION_SOURCE_UNDEFINED.equals(annotation.injectionSource())) {
+                injectionSource = null;
+            } else {
+                injectionSource = annotation.injectionSource();
+            }
+        }
+
+        Field getField() {
+            return field;
+        }
+
+        PaxWicketBean getAnnotation() {
+            return annotation;
+        }
+
+        Class<?> getBeanType() {
+            return field.getType();
+        }
+
+        /**
+         * @return the injection source defined by the annotation or <code>null</code> if it is left undefined
+         */
+        String getInjectionSource() {
+            return injectionSource;
+        }
+    }
+}
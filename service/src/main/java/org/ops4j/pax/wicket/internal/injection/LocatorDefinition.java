@@ -0,0 +1,213 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection;
+
+import java.io.ObjectStreamException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ops4j.pax.wicket.api.PaxWicketBean;
+import org.ops4j.pax.wicket.internal.Activator;
+import org.ops4j.pax.wicket.internal.injection.blueprint.BlueprintBeanProxyTargetLocator;
+import org.ops4j.pax.wicket.internal.injection.registry.OSGiServiceRegistryProxyTargetLocator;
+import org.ops4j.pax.wicket.internal.injection.spring.SpringBeanProxyTargetLocator;
+import org.ops4j.pax.wicket.util.proxy.IProxyTargetLocator;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Compact, interned description of how the bean of an injected field is located: bundle, class and name of the field,
+ * the (resolved) injection source and the overwrites. All proxies of the same field share one definition (and the
+ * locator it delegates to), so a serialized page only contains each definition once and every proxy refers to it;
+ * after deserialization the definition is replaced by the interned one and the locator is rebuilt from the field if
+ * required.
+ */
+public final class LocatorDefinition implements IProxyTargetLocator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ConcurrentMap<LocatorDefinition, LocatorDefinition> DEFINITIONS =
+        new ConcurrentHashMap<LocatorDefinition, LocatorDefinition>();
+
+    private final long bundleId;
+    private final String parentName;
+    private final String fieldName;
+    private final String injectionSource;
+    private final HashMap<String, String> overwrites;
+
+    private transient Class<?> parent;
+    private transient IProxyTargetLocator locator;
+
+    private LocatorDefinition(long bundleId, Class<?> parent, String fieldName, String injectionSource,
+            Map<String, String> overwrites) {
+        this.bundleId = bundleId;
+        this.parent = parent;
+        parentName = parent.getName();
+        this.fieldName = fieldName;
+        this.injectionSource = injectionSource;
+        this.overwrites = overwrites == null || overwrites.isEmpty() ? null : new HashMap<String, String>(overwrites);
+    }
+
+    /**
+     * @return <code>true</code> if the injection source can be described by a definition
+     */
+    static boolean isSupported(String injectionSource) {
+        return PaxWicketBean.INJECTION_SOURCE_SPRING.equals(injectionSource)
+                || PaxWicketBean.INJECTION_SOURCE_BLUEPRINT.equals(injectionSource)
+                || PaxWicketBean.INJECTION_SOURCE_SERVICE_REGISTRY.equals(injectionSource)
+                || PaxWicketBean.INJECTION_SOURCE_SERVICE_REGISTRY_STICKY.equals(injectionSource);
+    }
+
+    /**
+     * @return the interned definition for the field declared by the parent class, located via the given (resolved)
+     *         injection source
+     */
+    static LocatorDefinition intern(BundleContext bundleContext, Field field, Class<?> parent,
+            Map<String, String> overwrites, String injectionSource) {
+        LocatorDefinition definition =
+            new LocatorDefinition(bundleContext.getBundle().getBundleId(), parent, field.getName(), injectionSource,
+                overwrites);
+        LocatorDefinition interned = DEFINITIONS.get(definition);
+        if (interned != null && interned.parent == parent) {
+            return interned;
+        }
+        definition.locator =
+            createLocator(bundleContext, field.getAnnotation(PaxWicketBean.class), field.getType(), parent,
+                definition.overwrites, injectionSource);
+        if (interned == null) {
+            interned = DEFINITIONS.putIfAbsent(definition, definition);
+            return interned == null ? definition : interned;
+        }
+        // the interned one was deserialized before the class had been loaded or belongs to an old bundle revision
+        DEFINITIONS.put(definition, definition);
+        return definition;
+    }
+
+    private static IProxyTargetLocator createLocator(BundleContext bundleContext, PaxWicketBean annotation,
+            Class<?> beanType, Class<?> parent, Map<String, String> overwrites, String injectionSource) {
+        if (PaxWicketBean.INJECTION_SOURCE_SPRING.equals(injectionSource)) {
+            return new SpringBeanProxyTargetLocator(bundleContext, annotation, beanType, parent, overwrites);
+        }
+        if (PaxWicketBean.INJECTION_SOURCE_BLUEPRINT.equals(injectionSource)) {
+            return new BlueprintBeanProxyTargetLocator(bundleContext, annotation, beanType, parent, overwrites);
+        }
+        if (PaxWicketBean.INJECTION_SOURCE_SERVICE_REGISTRY.equals(injectionSource)) {
+            return new OSGiServiceRegistryProxyTargetLocator(bundleContext, annotation, beanType, parent);
+        }
+        if (PaxWicketBean.INJECTION_SOURCE_SERVICE_REGISTRY_STICKY.equals(injectionSource)) {
+            return new OSGiServiceRegistryProxyTargetLocator(bundleContext, annotation, beanType, parent, true);
+        }
+        throw new IllegalStateException("Unsupported injection source " + injectionSource);
+    }
+
+    /**
+     * Drops the definitions of a bundle; called when the bundle stops.
+     */
+    public static void removeAll(Bundle bundle) {
+        long removedBundleId = bundle.getBundleId();
+        for (Iterator<LocatorDefinition> iterator = DEFINITIONS.keySet().iterator(); iterator.hasNext();) {
+            if (iterator.next().bundleId == removedBundleId) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all definitions; called when pax-wicket stops.
+     */
+    public static void clear() {
+        DEFINITIONS.clear();
+    }
+
+    public Object locateProxyTarget() {
+        return getLocator().locateProxyTarget();
+    }
+
+    public synchronized Class<?> getParent() {
+        if (parent == null) {
+            try {
+                parent = getBundleContext().getBundle().loadClass(parentName);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Class " + parentName + " is no longer available in bundle "
+                        + bundleId, e);
+            }
+        }
+        return parent;
+    }
+
+    private synchronized IProxyTargetLocator getLocator() {
+        if (locator == null) {
+            Class<?> parentClass = getParent();
+            Field field;
+            try {
+                field = parentClass.getDeclaredField(fieldName);
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException("Field " + fieldName + " is no longer available in class "
+                        + parentName, e);
+            }
+            locator =
+                createLocator(getBundleContext(), field.getAnnotation(PaxWicketBean.class), field.getType(),
+                    parentClass, overwrites, injectionSource);
+        }
+        return locator;
+    }
+
+    private BundleContext getBundleContext() {
+        BundleContext bundleContext = Activator.getBundleContextByBundleId(bundleId);
+        if (bundleContext == null) {
+            throw new IllegalStateException("Bundle " + bundleId + " of class " + parentName
+                    + " is no longer available");
+        }
+        return bundleContext;
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        LocatorDefinition interned = DEFINITIONS.putIfAbsent(this, this);
+        return interned == null ? this : interned;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LocatorDefinition)) {
+            return false;
+        }
+        LocatorDefinition other = (LocatorDefinition) obj;
+        return bundleId == other.bundleId && parentName.equals(other.parentName) && fieldName.equals(other.fieldName)
+                && injectionSource.equals(other.injectionSource)
+                && (overwrites == null ? other.overwrites == null : overwrites.equals(other.overwrites));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (bundleId ^ (bundleId >>> 32));
+        result = 31 * result + parentName.hashCode();
+        result = 31 * result + fieldName.hashCode();
+        result = 31 * result + injectionSource.hashCode();
+        return 31 * result + (overwrites == null ? 0 : overwrites.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return "LocatorDefinition[" + parentName + "." + fieldName + " via " + injectionSource + "]";
+    }
+}
@@ -15,8 +15,11 @@
  */
 package org.ops4j.pax.wicket.internal.injection;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 
+import net.sf.cglib.proxy.Callback;
 import net.sf.cglib.proxy.Enhancer;
 
 import org.apache.wicket.markup.html.WebPage;
@@ -86,12 +89,20 @@ public class PageFactoryDecorator implements PageFactory<WebPage>, InjectionAwar
         this.injectionSource = injectionSource;
     }
 
+    /**
+     * Page factory creating instances of a subclass of the page class enhanced with a {@link ComponentProxy}, so the
+     * injection knows overwrites and injection source of the page. The subclass is generated once per factory and
+     * instances are created through its cached constructors.
+     */
     private static class InternalPageFactory extends AbstractPageFactory<WebPage> {
 
         private Class<WebPage> pageClass;
         private Map<String, String> overwrites;
         private String injectionSource;
 
+        private volatile Constructor<?> defaultConstructor;
+        private volatile Constructor<?> parametersConstructor;
+
         public InternalPageFactory(BundleContext bundleContext, String pageId, String applicationName, String pageName,
                 Class<WebPage> pageClass, Map<String, String> overwrites, String injectionSource)
             throws IllegalArgumentException {
@@ -102,26 +113,58 @@ public class PageFactoryDecorator implements PageFactory<WebPage>, InjectionAwar
         }
 
         public WebPage createPage(PageParameters params) {
-            if (params != null && !params.isEmpty()) {
-                try {
-                    Enhancer e = new Enhancer();
-                    e.setSuperclass(pageClass);
-                    e.setCallback(new ComponentProxy(injectionSource, overwrites));
-                    return (WebPage) e.create(new Class[]{ PageParameters.class }, new Object[]{ params });
-                } catch (Exception e) {
-                    throw new RuntimeException(String.format("Creation of %s not possible", pageClass.getName()), e);
-                }
-            }
             try {
-                Enhancer e = new Enhancer();
-                e.setSuperclass(pageClass);
-                e.setCallback(new ComponentProxy(injectionSource, overwrites));
-                return (WebPage) e.create();
+                if (params != null && !params.isEmpty()) {
+                    return newInstance(getParametersConstructor(), params);
+                }
+                return newInstance(getDefaultConstructor());
             } catch (Exception e) {
                 throw new RuntimeException(String.format("Creation of %s not possible", pageClass.getName()), e);
             }
         }
 
+        private WebPage newInstance(Constructor<?> constructor, Object... args) throws Exception {
+            Class<?> enhancedClass = constructor.getDeclaringClass();
+            // the callbacks are bound to the new instance in its constructor; each page gets its own proxy since the
+            // proxy answers hashCode() of the page
+            Callback[] callbacks = { new ComponentProxy(injectionSource, overwrites) };
+            Enhancer.registerCallbacks(enhancedClass, callbacks);
+            try {
+                return (WebPage) constructor.newInstance(args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            } finally {
+                Enhancer.registerCallbacks(enhancedClass, null);
+            }
+        }
+
+        private Constructor<?> getDefaultConstructor() throws NoSuchMethodException {
+            if (defaultConstructor == null) {
+                defaultConstructor = getEnhancedClass().getConstructor();
+            }
+            return defaultConstructor;
+        }
+
+        private Constructor<?> getParametersConstructor() throws NoSuchMethodException {
+            if (parametersConstructor == null) {
+                parametersConstructor = getEnhancedClass().getConstructor(PageParameters.class);
+            }
+            return parametersConstructor;
+        }
+
+        private Class<?> getEnhancedClass() {
+            Constructor<?> known = defaultConstructor != null ? defaultConstructor : parametersConstructor;
+            if (known != null) {
+                return known.getDeclaringClass();
+            }
+            Enhancer e = new Enhancer();
+            e.setSuperclass(pageClass);
+            e.setCallbackType(ComponentProxy.class);
+            // cglib caches the generated class, so concurrent first calls end up with the same class
+            return e.createClass();
+        }
+
         public Class<WebPage> getPageClass() {
             return pageClass;
         }
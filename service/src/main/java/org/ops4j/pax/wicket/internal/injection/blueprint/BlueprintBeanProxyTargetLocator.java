@@ -53,26 +53,21 @@ public class BlueprintBeanProxyTargetLocator extends AbstractProxyTargetLocator<
     private static class BlueprintBeanReactor implements BeanReactor<BlueprintContainer> {
 
         private String beanName;
-        private Object bean;
 
         public BlueprintBeanReactor(String beanName) {
             this.beanName = beanName;
         }
 
         public boolean containsBean(BlueprintContainer blueprintContainer) {
-            try {
-                bean = blueprintContainer.getComponentInstance(beanName);
-            } catch (NoSuchComponentException e) {
-                return false;
-            }
-            return true;
+            return BlueprintComponentIds.contains(blueprintContainer, beanName);
         }
 
         public Object createBean(BlueprintContainer blueprintContainer) {
-            if (bean == null) {
-                throw new IllegalStateException("Contains bean method must be called successfully first");
+            try {
+                return blueprintContainer.getComponentInstance(beanName);
+            } catch (NoSuchComponentException e) {
+                throw new IllegalStateException("Component " + beanName + " disappeared from its container", e);
             }
-            return bean;
         }
 
     }
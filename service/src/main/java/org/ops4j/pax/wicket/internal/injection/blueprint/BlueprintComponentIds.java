@@ -0,0 +1,71 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection.blueprint;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.ops4j.pax.wicket.internal.injection.ContainerHandles;
+import org.osgi.service.blueprint.container.BlueprintContainer;
+
+/**
+ * Index of the component ids of the blueprint containers, so checking whether a container provides a bean does not
+ * instantiate it (which would create an additional instance of prototype scoped beans). The index of a container is
+ * rebuilt after any container service changed (see {@link ContainerHandles#getGeneration()}).
+ */
+final class BlueprintComponentIds {
+
+    private static final Map<BlueprintContainer, ComponentIds> INDEX =
+        new WeakHashMap<BlueprintContainer, ComponentIds>();
+
+    private BlueprintComponentIds() {
+        // static utility
+    }
+
+    static boolean contains(BlueprintContainer container, String componentId) {
+        return getComponentIds(container).contains(componentId);
+    }
+
+    private static Set<String> getComponentIds(BlueprintContainer container) {
+        long generation = ContainerHandles.getGeneration();
+        synchronized (INDEX) {
+            ComponentIds cached = INDEX.get(container);
+            if (cached != null && cached.generation == generation) {
+                return cached.ids;
+            }
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> ids = Collections.unmodifiableSet(new HashSet<String>(container.getComponentIds()));
+        synchronized (INDEX) {
+            INDEX.put(container, new ComponentIds(generation, ids));
+        }
+        return ids;
+    }
+
+    private static final class ComponentIds {
+
+        private final long generation;
+        private final Set<String> ids;
+
+        private ComponentIds(long generation, Set<String> ids) {
+            this.generation = generation;
+            this.ids = ids;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleReference;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +50,8 @@ public class OSGiServiceRegistryProxyTargetLocator implements IProxyTargetLocato
 
     private final Class<?> parent;
 
+    private final boolean sticky;
+
     /**
      * @param pageClass
      * @param serviceClass
@@ -56,7 +59,18 @@ public class OSGiServiceRegistryProxyTargetLocator implements IProxyTargetLocato
      */
     public OSGiServiceRegistryProxyTargetLocator(BundleContext paxBundleContext, PaxWicketBean annotation,
             Class<?> serviceClass, Class<?> pageClass) {
+        this(paxBundleContext, annotation, serviceClass, pageClass, false);
+    }
+
+    /**
+     * @param sticky if <code>true</code> the located service is kept as long as it is the best matching service
+     *        instead of getting and releasing it around every call, see
+     *        {@link PaxWicketBean#INJECTION_SOURCE_SERVICE_REGISTRY_STICKY}
+     */
+    public OSGiServiceRegistryProxyTargetLocator(BundleContext paxBundleContext, PaxWicketBean annotation,
+            Class<?> serviceClass, Class<?> pageClass, boolean sticky) {
         this.parent = pageClass;
+        this.sticky = sticky;
         if (pageClass.getClassLoader() instanceof BundleReference) {
             // Fetch the Bundlecontext of the page class to locate the service
             BundleReference reference = (BundleReference) pageClass.getClassLoader();
@@ -84,6 +98,10 @@ public class OSGiServiceRegistryProxyTargetLocator implements IProxyTargetLocato
             filter = null;
         }
         try {
+            if (sticky) {
+                return new StickyProxyTarget(StickyServiceTrackers.getTracker(bundleContext, serviceInterface,
+                    filter), filter);
+            }
             LOGGER.debug("Try to locate a suitable service for objectClass = "
                     + serviceInterface + " and filter = " + filter);
             ServiceReference[] references = bundleContext.getAllServiceReferences(serviceInterface, filter);
@@ -175,6 +193,34 @@ public class OSGiServiceRegistryProxyTargetLocator implements IProxyTargetLocato
         }
     }
 
+    /**
+     * A proxy target following the best matching service of a shared tracker; it is never released, the tracker
+     * rebinds whenever the service goes away or the ranking changes.
+     */
+    private final class StickyProxyTarget implements ReleasableProxyTarget {
+
+        private final ServiceTracker tracker;
+        private final String filter;
+
+        private StickyProxyTarget(ServiceTracker tracker, String filter) {
+            this.tracker = tracker;
+            this.filter = filter;
+        }
+
+        public Object getTarget() throws NoBeanAvailableForInjectionException {
+            Object service = tracker.getService();
+            if (service == null) {
+                throw new NoBeanAvailableForInjectionException("can't find any service matching objectClass = "
+                        + serviceInterface + " and filter = " + filter);
+            }
+            return service;
+        }
+
+        public Object releaseTarget() {
+            return this;
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
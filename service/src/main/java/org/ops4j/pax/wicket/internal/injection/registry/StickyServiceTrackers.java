@@ -0,0 +1,122 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection.registry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link ServiceTracker}s backing sticky service registry injection. There is one tracker per bundle, service
+ * interface and filter, shared by all proxies of that bundle; it is opened on first use and closed as soon as the
+ * bundle stops.
+ */
+public final class StickyServiceTrackers {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StickyServiceTrackers.class);
+
+    private static final Map<Long, Map<String, ServiceTracker>> TRACKERS =
+        new HashMap<Long, Map<String, ServiceTracker>>();
+
+    private StickyServiceTrackers() {
+        // static utility
+    }
+
+    /**
+     * @return the opened tracker for the services matching interface and (optional) filter seen by the bundle context
+     */
+    static ServiceTracker getTracker(BundleContext bundleContext, String serviceInterface, String filter)
+        throws InvalidSyntaxException {
+        Long bundleId = bundleContext.getBundle().getBundleId();
+        String key = filter == null ? serviceInterface : serviceInterface + filter;
+        synchronized (TRACKERS) {
+            Map<String, ServiceTracker> bundleTrackers = TRACKERS.get(bundleId);
+            if (bundleTrackers != null && bundleTrackers.containsKey(key)) {
+                return bundleTrackers.get(key);
+            }
+        }
+        String trackerFilter = "(" + Constants.OBJECTCLASS + "=" + serviceInterface + ")";
+        if (filter != null) {
+            trackerFilter = "(&" + trackerFilter + filter + ")";
+        }
+        // opened outside of the lock since opening gets the matching services
+        ServiceTracker tracker = new ServiceTracker(bundleContext, bundleContext.createFilter(trackerFilter), null);
+        tracker.open(true);
+        synchronized (TRACKERS) {
+            Map<String, ServiceTracker> bundleTrackers = TRACKERS.get(bundleId);
+            if (bundleTrackers == null) {
+                bundleTrackers = new HashMap<String, ServiceTracker>();
+                TRACKERS.put(bundleId, bundleTrackers);
+            }
+            ServiceTracker concurrentTracker = bundleTrackers.get(key);
+            if (concurrentTracker == null) {
+                LOGGER.debug("Opened sticky service tracker for objectClass = {} and filter = {}", serviceInterface,
+                    filter);
+                bundleTrackers.put(key, tracker);
+                return tracker;
+            }
+            tracker.close();
+            return concurrentTracker;
+        }
+    }
+
+    /**
+     * Closes the trackers of a bundle; called when the bundle stops.
+     */
+    public static void close(Bundle bundle) {
+        Map<String, ServiceTracker> bundleTrackers;
+        synchronized (TRACKERS) {
+            bundleTrackers = TRACKERS.remove(bundle.getBundleId());
+        }
+        if (bundleTrackers != null) {
+            close(bundleTrackers.values());
+        }
+    }
+
+    /**
+     * Closes all trackers; called when pax-wicket stops.
+     */
+    public static void closeAll() {
+        List<ServiceTracker> trackers = new ArrayList<ServiceTracker>();
+        synchronized (TRACKERS) {
+            for (Map<String, ServiceTracker> bundleTrackers : TRACKERS.values()) {
+                trackers.addAll(bundleTrackers.values());
+            }
+            TRACKERS.clear();
+        }
+        close(trackers);
+    }
+
+    private static void close(Iterable<ServiceTracker> trackers) {
+        for (ServiceTracker tracker : trackers) {
+            try {
+                tracker.close();
+            } catch (IllegalStateException e) {
+                // the bundle context is no longer valid, the framework already removed everything
+                LOGGER.trace("Ignore exception while closing tracker", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection.spring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ops4j.pax.wicket.internal.injection.ContainerHandles;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Cache of the bean name providing a bean type in an application context, so injecting by type costs the same as
+ * injecting by name. Like {@link ApplicationContext#getBean(Class)} a type only resolves if it is provided by exactly
+ * one bean of the context (or, if none, of its parents), ignoring beans which are no autowire candidates if there are
+ * several. Contexts which cannot tell the autowire candidates of an ambiguous type leave it to
+ * {@link ApplicationContext#getBean(Class)} (see {@link #BY_TYPE}). The names of a context are resolved again after any
+ * container service changed (see {@link ContainerHandles#getGeneration()}).
+ */
+final class SpringBeanNames {
+
+    /**
+     * Marker for types not (uniquely) provided by a context.
+     */
+    private static final String NONE = new String("");
+
+    /**
+     * Returned for types provided by several beans of a context which cannot tell whether they are autowire candidates;
+     * the bean has to be looked up by type then. Never cached.
+     */
+    static final String BY_TYPE = new String("");
+
+    private static final Map<ApplicationContext, BeanNames> NAMES = new WeakHashMap<ApplicationContext, BeanNames>();
+
+    private SpringBeanNames() {
+        // static utility
+    }
+
+    /**
+     * @return the name of the only bean of the given type, {@link #BY_TYPE} or <code>null</code> if there is none or
+     *         more than one
+     */
+    static String getBeanName(ApplicationContext applicationContext, Class<?> beanType) {
+        ConcurrentMap<Class<?>, String> names = getNames(applicationContext);
+        String beanName = names.get(beanType);
+        if (beanName == null) {
+            beanName = resolveBeanName(applicationContext, beanType);
+            if (beanName == BY_TYPE) {
+                return BY_TYPE;
+            }
+            names.put(beanType, beanName);
+        }
+        return beanName == NONE ? null : beanName;
+    }
+
+    private static String resolveBeanName(ApplicationContext applicationContext, Class<?> beanType) {
+        ApplicationContext context = applicationContext;
+        while (context != null) {
+            String[] beanNames = context.getBeanNamesForType(beanType);
+            if (beanNames.length == 1) {
+                return beanNames[0];
+            }
+            if (beanNames.length > 1) {
+                return resolveAutowireCandidate(context, beanNames);
+            }
+            context = context.getParent();
+        }
+        return NONE;
+    }
+
+    /**
+     * Picks the only autowire candidate of several beans of a type, like {@link ApplicationContext#getBean(Class)}.
+     */
+    private static String resolveAutowireCandidate(ApplicationContext context, String[] beanNames) {
+        AutowireCapableBeanFactory beanFactory = context.getAutowireCapableBeanFactory();
+        if (!(beanFactory instanceof ConfigurableListableBeanFactory)) {
+            return BY_TYPE;
+        }
+        ConfigurableListableBeanFactory listableBeanFactory = (ConfigurableListableBeanFactory) beanFactory;
+        List<String> candidates = new ArrayList<String>();
+        for (String beanName : beanNames) {
+            // singletons registered without definition are always candidates
+            if (!listableBeanFactory.containsBeanDefinition(beanName)
+                    || listableBeanFactory.getBeanDefinition(beanName).isAutowireCandidate()) {
+                candidates.add(beanName);
+            }
+        }
+        return candidates.size() == 1 ? candidates.get(0) : NONE;
+    }
+
+    private static ConcurrentMap<Class<?>, String> getNames(ApplicationContext applicationContext) {
+        long generation = ContainerHandles.getGeneration();
+        synchronized (NAMES) {
+            BeanNames cached = NAMES.get(applicationContext);
+            if (cached == null || cached.generation != generation) {
+                cached = new BeanNames(generation);
+                NAMES.put(applicationContext, cached);
+            }
+            return cached.names;
+        }
+    }
+
+    private static final class BeanNames {
+
+        private final long generation;
+        private final ConcurrentMap<Class<?>, String> names = new ConcurrentHashMap<Class<?>, String>();
+
+        private BeanNames(long generation) {
+            this.generation = generation;
+        }
+    }
+}
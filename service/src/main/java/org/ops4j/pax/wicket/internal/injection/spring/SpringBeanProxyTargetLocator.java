@@ -37,7 +37,13 @@ public class SpringBeanProxyTargetLocator extends AbstractProxyTargetLocator<App
     protected BeanReactor<ApplicationContext> createStrategy() {
         if (annotation.name().equals("")) {
             return new BeanReactor<ApplicationContext>() {
+                private String beanName;
+
                 public boolean containsBean(ApplicationContext applicationContext) {
+                    beanName = SpringBeanNames.getBeanName(applicationContext, beanType);
+                    if (beanName != SpringBeanNames.BY_TYPE) {
+                        return beanName != null;
+                    }
                     try {
                         applicationContext.getBean(beanType);
                     } catch (NoSuchBeanDefinitionException e) {
@@ -47,7 +53,10 @@ public class SpringBeanProxyTargetLocator extends AbstractProxyTargetLocator<App
                 }
 
                 public Object createBean(ApplicationContext applicationContext) {
-                    return applicationContext.getBean(beanType);
+                    if (beanName == SpringBeanNames.BY_TYPE) {
+                        return applicationContext.getBean(beanType);
+                    }
+                    return applicationContext.getBean(beanName, beanType);
                 }
             };
         }
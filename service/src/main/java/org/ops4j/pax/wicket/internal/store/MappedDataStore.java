@@ -0,0 +1,483 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.store;
+
+import static org.ops4j.lang.NullArgumentException.validateNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.wicket.pageStore.IDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IDataStore} keeping the pages of all sessions of an application in memory mapped segment files. Pages are
+ * appended to the active segment and located by an in memory index; pages are read and written straight from and to
+ * the mapped buffers. Space of removed or replaced pages is reclaimed by compaction: a full segment whose live data
+ * drops below a quarter is copied into the active segment and recycled. Like the default disk store, each session
+ * keeps at most a configured amount of page data and drops its oldest pages first.
+ * <p/>
+ * Segments are never unmapped (java offers no way to do so) but reused, oversized ones for the next page they fit;
+ * the store therefore keeps as many segments as it needed at its peak until it is destroyed.
+ * <p/>
+ * Each session has a lock of its own, guarding its index and the bytes of its pages; the segments are guarded by an
+ * allocation lock which is only held to reserve or release space, never while copying page data. A thread holding
+ * the allocation lock never waits for a session lock.
+ * <p/>
+ * The index only lives in memory, so the segment files of a previous run are deleted on creation.
+ */
+public class MappedDataStore implements IDataStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedDataStore.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final int COMPACTION_DIVISOR = 4;
+
+    private final File folder;
+    private final int segmentSize;
+    private final long maxSizePerSession;
+
+    private final ConcurrentMap<String, SessionPages> sessions = new ConcurrentHashMap<String, SessionPages>();
+
+    /**
+     * Guards the segments (their positions, pages and live bytes) and the lists below.
+     */
+    private final Object allocationLock = new Object();
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final LinkedList<Segment> freeSegments = new LinkedList<Segment>();
+    private final List<Segment> freeOversizedSegments = new ArrayList<Segment>();
+    private final Set<Segment> reclaimCandidates = new LinkedHashSet<Segment>();
+    private Segment activeSegment;
+    private int nextSegmentId;
+
+    /**
+     * @param folder folder for the segment files; created if required and cleared
+     * @param segmentSize size of a segment file in bytes; larger pages get a segment of their own
+     * @param maxSizePerSession maximum bytes of page data kept per session
+     */
+    public MappedDataStore(File folder, int segmentSize, long maxSizePerSession) {
+        validateNotNull(folder, "folder");
+        if (segmentSize <= 0 || maxSizePerSession <= 0) {
+            throw new IllegalArgumentException("Segment size and maximum size per session must be positive");
+        }
+        this.folder = folder;
+        this.segmentSize = segmentSize;
+        this.maxSizePerSession = maxSizePerSession;
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IllegalStateException("Unable to create page store folder " + folder);
+        }
+        deleteSegmentFiles();
+    }
+
+    public byte[] getData(String sessionId, int id) {
+        SessionPages session = sessions.get(sessionId);
+        if (session == null) {
+            return null;
+        }
+        synchronized (session) {
+            PageLocation location = session.pages.get(id);
+            if (location == null) {
+                return null;
+            }
+            byte[] data = new byte[location.length];
+            ByteBuffer source = location.segment.buffer.duplicate();
+            source.position(location.offset);
+            source.get(data);
+            return data;
+        }
+    }
+
+    public void storeData(String sessionId, int id, byte[] data) {
+        while (!storeData(getSession(sessionId), sessionId, id, data)) {
+            // the session has been removed meanwhile, its pages would never be released
+        }
+        reclaim();
+    }
+
+    /**
+     * @return <code>false</code> if the session has been removed before it could be locked
+     */
+    private boolean storeData(SessionPages session, String sessionId, int id, byte[] data) {
+        synchronized (session) {
+            if (session.removed) {
+                return false;
+            }
+            List<PageLocation> released = new ArrayList<PageLocation>();
+            PageLocation replaced = session.pages.remove(id);
+            if (replaced != null) {
+                session.size -= replaced.length;
+                released.add(replaced);
+            }
+            Iterator<PageLocation> oldest = session.pages.values().iterator();
+            while (session.size + data.length > maxSizePerSession && oldest.hasNext()) {
+                PageLocation evicted = oldest.next();
+                oldest.remove();
+                session.size -= evicted.length;
+                released.add(evicted);
+            }
+            PageLocation location = new PageLocation(sessionId, id, data.length);
+            synchronized (allocationLock) {
+                release(released);
+                allocate(location);
+            }
+            // the reserved space is written without the allocation lock
+            location.segment.write(location.offset, ByteBuffer.wrap(data));
+            session.pages.put(id, location);
+            session.size += data.length;
+            return true;
+        }
+    }
+
+    public void removeData(String sessionId, int id) {
+        SessionPages session = sessions.get(sessionId);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            PageLocation location = session.pages.remove(id);
+            if (location == null) {
+                return;
+            }
+            session.size -= location.length;
+            synchronized (allocationLock) {
+                release(location);
+            }
+        }
+        reclaim();
+    }
+
+    public void removeData(String sessionId) {
+        SessionPages session = sessions.remove(sessionId);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            session.removed = true;
+            synchronized (allocationLock) {
+                release(session.pages.values());
+            }
+            session.pages.clear();
+            session.size = 0;
+        }
+        reclaim();
+    }
+
+    public void destroy() {
+        synchronized (allocationLock) {
+            sessions.clear();
+            segments.clear();
+            freeSegments.clear();
+            freeOversizedSegments.clear();
+            reclaimCandidates.clear();
+            activeSegment = null;
+            // the mappings are released once the buffers are garbage collected
+            deleteSegmentFiles();
+        }
+    }
+
+    public boolean isReplicated() {
+        return false;
+    }
+
+    public boolean canBeAsynchronous() {
+        return true;
+    }
+
+    /**
+     * @return the number of segment files currently in use or ready for reuse
+     */
+    int getSegmentCount() {
+        synchronized (allocationLock) {
+            return segments.size();
+        }
+    }
+
+    private SessionPages getSession(String sessionId) {
+        SessionPages session = sessions.get(sessionId);
+        if (session == null) {
+            SessionPages created = new SessionPages();
+            session = sessions.putIfAbsent(sessionId, created);
+            if (session == null) {
+                session = created;
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Has to be called with the allocation lock.
+     */
+    private void release(Iterable<PageLocation> locations) {
+        for (PageLocation location : locations) {
+            release(location);
+        }
+    }
+
+    /**
+     * Has to be called with the allocation lock.
+     */
+    private void release(PageLocation location) {
+        Segment segment = location.segment;
+        segment.locations.remove(location);
+        segment.liveBytes -= location.length;
+        if (segment != activeSegment && !segment.compacting) {
+            reclaimCandidates.add(segment);
+        }
+    }
+
+    /**
+     * Reserves room for the page at the end of a segment and moves the location there; has to be called with the
+     * allocation lock.
+     */
+    private void allocate(PageLocation location) {
+        Segment segment = selectSegment(location.length);
+        location.segment = segment;
+        location.offset = segment.position;
+        segment.position += location.length;
+        segment.locations.add(location);
+        segment.liveBytes += location.length;
+    }
+
+    private Segment selectSegment(int length) {
+        if (activeSegment != null && activeSegment.remaining() >= length) {
+            return activeSegment;
+        }
+        if (length > segmentSize) {
+            // oversized pages get a segment of their own which is reused as soon as the page is removed
+            Segment bestFit = null;
+            for (Segment segment : freeOversizedSegments) {
+                if (segment.capacity >= length && (bestFit == null || segment.capacity < bestFit.capacity)) {
+                    bestFit = segment;
+                }
+            }
+            if (bestFit == null) {
+                // rounded up to whole segments, so the segment fits more pages of similar size later on
+                return createSegment((int) ((length + (long) segmentSize - 1) / segmentSize * segmentSize));
+            }
+            freeOversizedSegments.remove(bestFit);
+            bestFit.free = false;
+            return bestFit;
+        }
+        if (activeSegment != null) {
+            reclaimCandidates.add(activeSegment);
+        }
+        activeSegment = freeSegments.isEmpty() ? createSegment(segmentSize) : freeSegments.removeFirst();
+        activeSegment.free = false;
+        return activeSegment;
+    }
+
+    /**
+     * Frees empty segments and compacts sparse ones; the active segment is never reclaimed. Must not be called while
+     * holding a session lock, since moving the pages of a segment requires the locks of their sessions.
+     */
+    private void reclaim() {
+        while (true) {
+            Segment segment;
+            List<PageLocation> locations;
+            synchronized (allocationLock) {
+                segment = nextSparseSegment();
+                if (segment == null) {
+                    return;
+                }
+                locations = new ArrayList<PageLocation>(segment.locations);
+            }
+            LOGGER.debug("Compact {} bytes of {}", segment.liveBytes, segment.file);
+            for (PageLocation location : locations) {
+                move(location, segment);
+            }
+            synchronized (allocationLock) {
+                segment.compacting = false;
+                if (segment.liveBytes == 0 && !segment.free) {
+                    free(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Frees the empty candidates; has to be called with the allocation lock.
+     *
+     * @return the next candidate to compact (marked as being compacted) or <code>null</code> if there is none
+     */
+    private Segment nextSparseSegment() {
+        Iterator<Segment> candidates = reclaimCandidates.iterator();
+        while (candidates.hasNext()) {
+            Segment segment = candidates.next();
+            candidates.remove();
+            if (segment == activeSegment || segment.free || segment.compacting || !segments.contains(segment)) {
+                continue;
+            }
+            if (segment.liveBytes == 0) {
+                free(segment);
+            } else if (segment.liveBytes < segment.capacity / COMPACTION_DIVISOR) {
+                segment.compacting = true;
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves a page out of a segment being compacted unless it has been removed or replaced meanwhile.
+     */
+    private void move(PageLocation location, Segment from) {
+        SessionPages session = sessions.get(location.sessionId);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            if (session.pages.get(location.id) != location || location.segment != from) {
+                return;
+            }
+            int fromOffset = location.offset;
+            synchronized (allocationLock) {
+                from.locations.remove(location);
+                from.liveBytes -= location.length;
+                allocate(location);
+            }
+            ByteBuffer source = from.buffer.duplicate();
+            source.position(fromOffset);
+            source.limit(fromOffset + location.length);
+            location.segment.write(location.offset, source);
+        }
+    }
+
+    /**
+     * Has to be called with the allocation lock.
+     */
+    private void free(Segment segment) {
+        segment.position = 0;
+        segment.free = true;
+        if (segment.capacity == segmentSize) {
+            freeSegments.add(segment);
+        } else {
+            freeOversizedSegments.add(segment);
+        }
+    }
+
+    private Segment createSegment(int capacity) {
+        File file = new File(folder, SEGMENT_PREFIX + nextSegmentId++);
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.setLength(capacity);
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            Segment segment = new Segment(file, buffer, capacity);
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create page store segment " + file, e);
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    // the mapping stays valid after the file is closed
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    LOGGER.trace("Ignore exception on close", e);
+                }
+            }
+        }
+    }
+
+    private void deleteSegmentFiles() {
+        File[] files = folder.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            if (files[i].getName().startsWith(SEGMENT_PREFIX) && !files[i].delete()) {
+                LOGGER.warn("Unable to delete page store segment {}", files[i]);
+            }
+        }
+    }
+
+    /**
+     * The pages of a session in the order they had been stored; guarded by the session itself.
+     */
+    private static final class SessionPages {
+
+        private final LinkedHashMap<Integer, PageLocation> pages = new LinkedHashMap<Integer, PageLocation>();
+        private long size;
+        private boolean removed;
+    }
+
+    /**
+     * Segment and offset of a page; only changed while holding the lock of its session.
+     */
+    private static final class PageLocation {
+
+        private final String sessionId;
+        private final int id;
+        private final int length;
+        private Segment segment;
+        private int offset;
+
+        private PageLocation(String sessionId, int id, int length) {
+            this.sessionId = sessionId;
+            this.id = id;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            return sessionId + "/" + id;
+        }
+    }
+
+    private static final class Segment {
+
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private final Set<PageLocation> locations = new LinkedHashSet<PageLocation>();
+        private int position;
+        private long liveBytes;
+        private boolean free;
+        private boolean compacting;
+
+        private Segment(File file, MappedByteBuffer buffer, int capacity) {
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        private int remaining() {
+            return capacity - position;
+        }
+
+        /**
+         * Copies the remaining bytes of the source to the given offset.
+         */
+        private void write(int offset, ByteBuffer source) {
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset);
+            target.put(source);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.store;
+
+import static org.ops4j.lang.NullArgumentException.validateNotNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.pageStore.IDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IDataStore} writing the pages of an application to a delegate store from a background thread, so the request
+ * does not wait for the page store. Pages waiting in the bounded queue are written in batches and served from memory
+ * when they are read in the meantime; a newer version of a queued page replaces the older one in place and does not
+ * take another slot. If the queue is full the request waits up to the configured time for space and then writes the
+ * page itself, which keeps the memory held by pending pages bounded.
+ * <p/>
+ * This replaces the wicket {@link org.apache.wicket.pageStore.AsynchronousDataStore}; it is therefore not asynchronous
+ * itself.
+ */
+public class WriteBehindDataStore implements IDataStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindDataStore.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 100;
+
+    private static final long POLL_MILLIS = 500;
+
+    private final IDataStore delegate;
+    private final int capacity;
+    private final int batchSize;
+    private final long offerTimeoutMillis;
+
+    /**
+     * The pages waiting to be written in the order they had been queued first, keyed like {@link #pending}; guarded by
+     * itself.
+     */
+    private final Map<String, Entry> queue = new LinkedHashMap<String, Entry>();
+    /**
+     * The queued pages and the ones being written right now.
+     */
+    private final ConcurrentMap<String, Entry> pending = new ConcurrentHashMap<String, Entry>();
+    /**
+     * Held while writing pages to the delegate, so a page removed from the queue is not written after it got removed.
+     */
+    private final Object writeLock = new Object();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity maximum number of pages waiting to be written
+     */
+    public WriteBehindDataStore(IDataStore delegate, String applicationName, int capacity, int batchSize,
+            long offerTimeoutMillis) {
+        this(delegate, applicationName, capacity, batchSize, offerTimeoutMillis, true);
+    }
+
+    WriteBehindDataStore(IDataStore delegate, String applicationName, int capacity, int batchSize,
+            long offerTimeoutMillis, boolean startWriter) {
+        validateNotNull(delegate, "delegate");
+        if (capacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive");
+        }
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        writer = new Thread(new Writer(), "pax-wicket-page-writer-" + applicationName);
+        writer.setDaemon(true);
+        if (startWriter) {
+            writer.start();
+        }
+    }
+
+    public byte[] getData(String sessionId, int id) {
+        Entry entry = pending.get(getKey(sessionId, id));
+        if (entry != null) {
+            return entry.data;
+        }
+        return delegate.getData(sessionId, id);
+    }
+
+    public void storeData(String sessionId, int id, byte[] data) {
+        Entry entry = new Entry(sessionId, id, data);
+        pending.put(entry.key, entry);
+        boolean queued = false;
+        if (running) {
+            try {
+                queued = offer(entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!queued) {
+            LOGGER.debug("Page queue full, store page {} synchronously", entry.key);
+            write(entry);
+        }
+    }
+
+    public void removeData(String sessionId, int id) {
+        synchronized (writeLock) {
+            String key = getKey(sessionId, id);
+            pending.remove(key);
+            synchronized (queue) {
+                queue.remove(key);
+                queue.notifyAll();
+            }
+            delegate.removeData(sessionId, id);
+        }
+    }
+
+    public void removeData(String sessionId) {
+        synchronized (writeLock) {
+            for (Iterator<Entry> iterator = pending.values().iterator(); iterator.hasNext();) {
+                if (iterator.next().sessionId.equals(sessionId)) {
+                    iterator.remove();
+                }
+            }
+            synchronized (queue) {
+                for (Iterator<Entry> iterator = queue.values().iterator(); iterator.hasNext();) {
+                    if (iterator.next().sessionId.equals(sessionId)) {
+                        iterator.remove();
+                    }
+                }
+                queue.notifyAll();
+            }
+            delegate.removeData(sessionId);
+        }
+    }
+
+    public void destroy() {
+        // no interrupt, it would close the file channels of a delegate writing right now
+        running = false;
+        synchronized (queue) {
+            queue.notifyAll();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeQueuedPages();
+        delegate.destroy();
+    }
+
+    public boolean isReplicated() {
+        return delegate.isReplicated();
+    }
+
+    public boolean canBeAsynchronous() {
+        return false;
+    }
+
+    /**
+     * @return the number of pages not written to the delegate yet
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Writes all queued pages on the calling thread.
+     */
+    void writeQueuedPages() {
+        List<Entry> remaining = new ArrayList<Entry>();
+        synchronized (queue) {
+            take(remaining, Integer.MAX_VALUE);
+        }
+        write(remaining);
+    }
+
+    /**
+     * Queues the entry, replacing a queued version of the same page, and waits up to the offer timeout for space.
+     *
+     * @return <code>false</code> if the queue stayed full
+     */
+    private boolean offer(Entry entry) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        synchronized (queue) {
+            while (!queue.containsKey(entry.key) && queue.size() >= capacity) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !running) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(queue, remaining);
+            }
+            // replacing the value keeps the position of the page in the queue
+            queue.put(entry.key, entry);
+            queue.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Moves up to the given number of entries from the queue to the batch; has to be called with the queue lock.
+     */
+    private void take(List<Entry> batch, int count) {
+        Iterator<Entry> entries = queue.values().iterator();
+        while (batch.size() < count && entries.hasNext()) {
+            batch.add(entries.next());
+            entries.remove();
+        }
+        queue.notifyAll();
+    }
+
+    private void write(Entry entry) {
+        synchronized (writeLock) {
+            writeIfCurrent(entry);
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        synchronized (writeLock) {
+            for (Entry entry : batch) {
+                writeIfCurrent(entry);
+            }
+        }
+    }
+
+    /**
+     * Writes the entry unless it had been replaced by a newer version of the page or removed in the meantime.
+     */
+    private void writeIfCurrent(Entry entry) {
+        if (pending.get(entry.key) != entry) {
+            return;
+        }
+        try {
+            delegate.storeData(entry.sessionId, entry.id, entry.data);
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to store page {}", entry.key, e);
+        } finally {
+            pending.remove(entry.key, entry);
+        }
+    }
+
+    private static String getKey(String sessionId, int id) {
+        return sessionId + ":" + id;
+    }
+
+    private final class Writer implements Runnable {
+
+        public void run() {
+            List<Entry> batch = new ArrayList<Entry>(batchSize);
+            while (running) {
+                try {
+                    synchronized (queue) {
+                        if (queue.isEmpty()) {
+                            queue.wait(POLL_MILLIS);
+                        }
+                        take(batch, batchSize);
+                    }
+                    write(batch);
+                } catch (InterruptedException e) {
+                    LOGGER.debug("Page writer interrupted, the remaining pages are written on destroy");
+                    running = false;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final String sessionId;
+        private final int id;
+        private final byte[] data;
+        private final String key;
+
+        private Entry(String sessionId, int id, byte[] data) {
+            this.sessionId = sessionId;
+            this.id = id;
+            this.data = data;
+            key = getKey(sessionId, id);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ops4j.pax.wicket.internal.Activator;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the class entries of a bundle, shared by everything scanning bundles (class resolving, injection and page
+ * mounting) for all applications. Each bundle revision is scanned at most once; the result is additionally stored in
+ * the data area of the pax-wicket bundle keyed by bundle id and revision, so that a restart of the container does not
+ * have to scan the same jars again. The revision consists of the last modification of the bundle and of its attached
+ * fragments, since fragments add classes to their host.
+ * <p/>
+ * Entries are the paths of the class files relative to the bundle root, without leading slash and without the
+ * <code>.class</code> extension (e.g. <code>org/example/MyPage</code>).
+ */
+public final class BundleClassIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleClassIndex.class);
+
+    private static final String INDEX_FOLDER = "class-index";
+    private static final String ENCODING = "UTF-8";
+
+    private static final ConcurrentMap<Long, IndexEntry> INDEX = new ConcurrentHashMap<Long, IndexEntry>();
+
+    private BundleClassIndex() {
+        // static utility
+    }
+
+    /**
+     * @return the (unmodifiable) class entries of the bundle; the bundle is only scanned if neither memory nor the
+     *         persisted index know its current revision
+     */
+    public static List<String> getClassEntries(Bundle bundle) {
+        Long bundleId = bundle.getBundleId();
+        String revision = getRevision(bundle);
+        while (true) {
+            IndexEntry entry = INDEX.get(bundleId);
+            if (entry != null && entry.isFor(bundle, revision)) {
+                return entry.getClassEntries();
+            }
+            IndexEntry created = new IndexEntry(bundle, revision);
+            boolean stored = entry == null ? INDEX.putIfAbsent(bundleId, created) == null
+                    : INDEX.replace(bundleId, entry, created);
+            if (stored) {
+                return created.getClassEntries();
+            }
+        }
+    }
+
+    /**
+     * Drops the in memory index; the persisted index is kept for the next start.
+     */
+    public static void clear() {
+        INDEX.clear();
+    }
+
+    /**
+     * Drops the in memory index of an unresolved bundle; the persisted index is kept since the bundle might be
+     * resolved again with the same revision.
+     */
+    public static void evict(Bundle bundle) {
+        INDEX.remove(bundle.getBundleId());
+    }
+
+    /**
+     * Drops the in memory and the persisted index of an uninstalled bundle.
+     */
+    public static void remove(Bundle bundle) {
+        INDEX.remove(bundle.getBundleId());
+        deleteIndexFiles(getIndexFolder(), bundle.getBundleId(), null);
+    }
+
+    /**
+     * Deletes the persisted indexes of bundles which are not installed any longer (e.g. since they have been
+     * uninstalled while pax-wicket was stopped).
+     */
+    public static void removeUninstalled(Bundle[] installedBundles) {
+        File indexFolder = getIndexFolder();
+        File[] files = indexFolder == null ? null : indexFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> installedIds = new HashSet<String>();
+        for (Bundle bundle : installedBundles) {
+            installedIds.add(String.valueOf(bundle.getBundleId()));
+        }
+        for (File file : files) {
+            String name = file.getName();
+            int separator = name.indexOf('-');
+            if (separator > 0 && !installedIds.contains(name.substring(0, separator))) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the last modification of the bundle and of its attached fragments (id and last modification), e.g.
+     *         <code>1350000000000_12.1350000000001</code>
+     */
+    private static String getRevision(Bundle bundle) {
+        StringBuilder revision = new StringBuilder().append(bundle.getLastModified());
+        Bundle[] fragments = getFragments(bundle);
+        if (fragments != null) {
+            for (Bundle fragment : fragments) {
+                revision.append('_').append(fragment.getBundleId()).append('.').append(fragment.getLastModified());
+            }
+        }
+        return revision.toString();
+    }
+
+    private static Bundle[] getFragments(Bundle bundle) {
+        BundleContext paxWicketContext = Activator.getBundleContext();
+        if (paxWicketContext == null) {
+            return null;
+        }
+        try {
+            ServiceReference reference = paxWicketContext.getServiceReference(PackageAdmin.class.getName());
+            if (reference == null) {
+                return null;
+            }
+            PackageAdmin packageAdmin = (PackageAdmin) paxWicketContext.getService(reference);
+            try {
+                return packageAdmin == null ? null : packageAdmin.getFragments(bundle);
+            } finally {
+                paxWicketContext.ungetService(reference);
+            }
+        } catch (IllegalStateException e) {
+            // pax-wicket is stopping
+            return null;
+        }
+    }
+
+    private static List<String> scan(Bundle bundle) {
+        List<String> classEntries = new ArrayList<String>();
+        Enumeration<?> entries = bundle.findEntries("/", "*.class", true);
+        if (entries == null) {
+            // bundle with no .class files (see PAXWICKET-305)
+            return classEntries;
+        }
+        while (entries.hasMoreElements()) {
+            String path = ((URL) entries.nextElement()).getPath();
+            int start = path.startsWith("/") ? 1 : 0;
+            classEntries.add(path.substring(start, path.length() - ".class".length()));
+        }
+        LOGGER.debug("Scanned {} class entries of bundle {}", classEntries.size(), bundle.getSymbolicName());
+        return classEntries;
+    }
+
+    private static File getIndexFolder() {
+        BundleContext paxWicketContext = Activator.getBundleContext();
+        if (paxWicketContext == null) {
+            return null;
+        }
+        try {
+            return paxWicketContext.getDataFile(INDEX_FOLDER);
+        } catch (IllegalStateException e) {
+            // pax-wicket is stopping
+            return null;
+        }
+    }
+
+    private static List<String> load(File indexFile) {
+        if (indexFile == null || !indexFile.isFile()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), ENCODING));
+            List<String> classEntries = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    classEntries.add(line);
+                }
+            }
+            return classEntries;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read class index {}, the bundle is scanned again", indexFile, e);
+            return null;
+        } finally {
+            close(reader);
+        }
+    }
+
+    private static void store(File indexFolder, Bundle bundle, String fileName, List<String> classEntries) {
+        if (indexFolder == null || !(indexFolder.isDirectory() || indexFolder.mkdirs())) {
+            return;
+        }
+        // indexes of older revisions of the bundle are useless from now on
+        deleteIndexFiles(indexFolder, bundle.getBundleId(), null);
+        File tmpFile = new File(indexFolder, fileName + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), ENCODING));
+            for (String classEntry : classEntries) {
+                writer.write(classEntry);
+                writer.newLine();
+            }
+            writer.close();
+            writer = null;
+            if (!tmpFile.renameTo(new File(indexFolder, fileName))) {
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to persist class index of bundle {}", bundle.getSymbolicName(), e);
+            tmpFile.delete();
+        } finally {
+            close(writer);
+        }
+    }
+
+    /**
+     * Deletes the persisted indexes of the bundle, except the one with the given file name.
+     */
+    private static void deleteIndexFiles(File indexFolder, long bundleId, String keptFileName) {
+        File[] files = indexFolder == null ? null : indexFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+        String prefix = bundleId + "-";
+        for (File file : files) {
+            if (file.getName().startsWith(prefix) && !file.getName().equals(keptFileName)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOGGER.trace("Ignore exception on close", e);
+        }
+    }
+
+    /**
+     * The index of a single bundle revision; the first caller calculates it while concurrent callers wait for the
+     * result.
+     */
+    private static final class IndexEntry {
+
+        private final Bundle bundle;
+        private final String revision;
+        private List<String> classEntries;
+
+        private IndexEntry(Bundle bundle, String revision) {
+            this.bundle = bundle;
+            this.revision = revision;
+        }
+
+        private boolean isFor(Bundle bundle, String revision) {
+            return this.bundle == bundle && this.revision.equals(revision);
+        }
+
+        private synchronized List<String> getClassEntries() {
+            if (classEntries == null) {
+                File indexFolder = getIndexFolder();
+                String fileName = bundle.getBundleId() + "-" + revision;
+                List<String> entries = load(indexFolder == null ? null : new File(indexFolder, fileName));
+                if (entries == null) {
+                    entries = scan(bundle);
+                    store(indexFolder, bundle, fileName, entries);
+                } else {
+                    LOGGER.debug("Reuse persisted class index of bundle {}", bundle.getSymbolicName());
+                    deleteIndexFiles(indexFolder, bundle.getBundleId(), fileName);
+                }
+                classEntries = Collections.unmodifiableList(entries);
+            }
+            return classEntries;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The parts of a class file required to decide whether a class is of interest for pax-wicket (name, super class and
+ * runtime visible class annotations), read straight from the bytes without defining the class.
+ */
+public final class ClassFileHeader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private final String className;
+    private final String superClassName;
+    private final Set<String> annotations;
+
+    private ClassFileHeader(String className, String superClassName, Set<String> annotations) {
+        this.className = className;
+        this.superClassName = superClassName;
+        this.annotations = annotations;
+    }
+
+    /**
+     * @return the header of the class file at the given location or <code>null</code> if it could not be read
+     */
+    public static ClassFileHeader read(URL classFile) {
+        if (classFile == null) {
+            return null;
+        }
+        InputStream inputStream = null;
+        try {
+            inputStream = classFile.openStream();
+            return read(new DataInputStream(new BufferedInputStream(inputStream)));
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static ClassFileHeader read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            return null;
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+        Object[] constants = readConstantPool(in);
+        in.readUnsignedShort(); // access flags
+        String className = classNameAt(constants, in.readUnsignedShort());
+        String superClassName = classNameAt(constants, in.readUnsignedShort());
+        skipFully(in, 2 * in.readUnsignedShort()); // interfaces
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+        Set<String> annotations = new HashSet<String>();
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String name = (String) constants[in.readUnsignedShort()];
+            int length = in.readInt();
+            if (!RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                skipFully(in, length);
+                continue;
+            }
+            int annotationCount = in.readUnsignedShort();
+            for (int j = 0; j < annotationCount; j++) {
+                annotations.add(readAnnotation(in, constants));
+            }
+        }
+        return new ClassFileHeader(className, superClassName, annotations);
+    }
+
+    /**
+     * Reads the constant pool; only utf8 constants (as strings) and class constants (as index of their name) are kept.
+     */
+    private static Object[] readConstantPool(DataInputStream in) throws IOException {
+        Object[] constants = new Object[in.readUnsignedShort()];
+        for (int i = 1; i < constants.length; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // utf8
+                    constants[i] = in.readUTF();
+                    break;
+                case 7: // class
+                    constants[i] = Integer.valueOf(in.readUnsignedShort());
+                    break;
+                case 8: // string
+                case 16: // method type
+                case 19: // module
+                case 20: // package
+                    skipFully(in, 2);
+                    break;
+                case 15: // method handle
+                    skipFully(in, 3);
+                    break;
+                case 3: // integer
+                case 4: // float
+                case 9: // field ref
+                case 10: // method ref
+                case 11: // interface method ref
+                case 12: // name and type
+                case 17: // dynamic
+                case 18: // invoke dynamic
+                    skipFully(in, 4);
+                    break;
+                case 5: // long
+                case 6: // double
+                    skipFully(in, 8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        return constants;
+    }
+
+    private static String classNameAt(Object[] constants, int index) {
+        if (index == 0) {
+            return null;
+        }
+        String internalName = (String) constants[(Integer) constants[index]];
+        return internalName.replace('/', '.');
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int memberCount = in.readUnsignedShort();
+        for (int i = 0; i < memberCount; i++) {
+            skipFully(in, 6); // access flags, name, descriptor
+            int attributeCount = in.readUnsignedShort();
+            for (int j = 0; j < attributeCount; j++) {
+                skipFully(in, 2);
+                skipFully(in, in.readInt());
+            }
+        }
+    }
+
+    /**
+     * @return the type descriptor of the annotation (e.g. <code>Lorg/example/MyAnnotation;</code>)
+     */
+    private static String readAnnotation(DataInputStream in, Object[] constants) throws IOException {
+        String type = (String) constants[in.readUnsignedShort()];
+        int pairCount = in.readUnsignedShort();
+        for (int i = 0; i < pairCount; i++) {
+            skipFully(in, 2); // element name
+            skipElementValue(in, constants);
+        }
+        return type;
+    }
+
+    private static void skipElementValue(DataInputStream in, Object[] constants) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                skipFully(in, 4);
+                break;
+            case '@':
+                readAnnotation(in, constants);
+                break;
+            case '[':
+                int valueCount = in.readUnsignedShort();
+                for (int i = 0; i < valueCount; i++) {
+                    skipElementValue(in, constants);
+                }
+                break;
+            default:
+                // constants, strings and classes
+                skipFully(in, 2);
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of class file");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * @return the name of the class (e.g. <code>org.example.MyPage</code>)
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the name of the super class or <code>null</code> for <code>java.lang.Object</code>
+     */
+    public String getSuperClassName() {
+        return superClassName;
+    }
+
+    public boolean isAnnotationPresent(Class<? extends Annotation> annotationClass) {
+        return annotations.contains("L" + annotationClass.getName().replace('.', '/') + ";");
+    }
+}
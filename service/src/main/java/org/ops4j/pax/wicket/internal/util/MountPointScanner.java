@@ -0,0 +1,114 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.wicket.Page;
+import org.ops4j.pax.wicket.api.PaxWicketMountPoint;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the {@link PaxWicketMountPoint} annotated pages of a bundle by reading the class files, so that only the
+ * annotated classes have to be loaded.
+ */
+public final class MountPointScanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MountPointScanner.class);
+
+    private static final String PAGE_CLASS_NAME = Page.class.getName();
+
+    private static final Map<Bundle, Candidates> CANDIDATES = new WeakHashMap<Bundle, Candidates>();
+
+    private MountPointScanner() {
+        // static utility
+    }
+
+    /**
+     * @return the names of the classes of the bundle annotated with {@link PaxWicketMountPoint} that are (or, if the
+     *         super class chain could not be read, might be) pages; the result is cached per bundle revision
+     */
+    public static List<String> findMountPointCandidates(Bundle bundle) {
+        long lastModified = bundle.getLastModified();
+        synchronized (CANDIDATES) {
+            Candidates cached = CANDIDATES.get(bundle);
+            if (cached != null && cached.lastModified == lastModified) {
+                return cached.classNames;
+            }
+        }
+        List<String> candidates = Collections.unmodifiableList(scan(bundle));
+        synchronized (CANDIDATES) {
+            CANDIDATES.put(bundle, new Candidates(lastModified, candidates));
+        }
+        return candidates;
+    }
+
+    private static List<String> scan(Bundle bundle) {
+        List<String> candidates = new ArrayList<String>();
+        Map<String, Boolean> pageClasses = new HashMap<String, Boolean>();
+        for (String classEntry : BundleClassIndex.getClassEntries(bundle)) {
+            ClassFileHeader header = ClassFileHeader.read(bundle.getEntry(classEntry + ".class"));
+            if (header == null) {
+                LOGGER.debug("Unable to read class file {} of bundle {}, load it to check for mount points",
+                    classEntry, bundle.getSymbolicName());
+                candidates.add(classEntry.replace('/', '.'));
+                continue;
+            }
+            if (header.isAnnotationPresent(PaxWicketMountPoint.class)
+                    && !Boolean.FALSE.equals(isPage(bundle, header.getSuperClassName(), pageClasses))) {
+                candidates.add(header.getClassName());
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return whether the class is a page or <code>null</code> if this could not be determined from the class files
+     */
+    private static Boolean isPage(Bundle bundle, String className, Map<String, Boolean> pageClasses) {
+        if (className == null || className.equals(Object.class.getName())) {
+            return Boolean.FALSE;
+        }
+        if (className.equals(PAGE_CLASS_NAME)) {
+            return Boolean.TRUE;
+        }
+        if (pageClasses.containsKey(className)) {
+            return pageClasses.get(className);
+        }
+        ClassFileHeader header = ClassFileHeader.read(bundle.getResource(className.replace('.', '/') + ".class"));
+        Boolean page = header == null ? null : isPage(bundle, header.getSuperClassName(), pageClasses);
+        pageClasses.put(className, page);
+        return page;
+    }
+
+    private static final class Candidates {
+
+        private final long lastModified;
+        private final List<String> classNames;
+
+        private Candidates(long lastModified, List<String> classNames) {
+            this.lastModified = lastModified;
+            this.classNames = classNames;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.application.IClassResolver;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleReference;
+
+/**
+ * Classes resolved while deserializing pages of an application, keyed by class name, so restoring a page does not ask
+ * the whole class resolver chain for classes already seen. There is one cache per class resolver (and so per
+ * application); the classes of a bundle are dropped from all caches whenever the bundle stops, since they are gone
+ * after a refresh.
+ */
+public final class ResolvedClassCache {
+
+    private static final Map<IClassResolver, ResolvedClassCache> CACHES =
+        new WeakHashMap<IClassResolver, ResolvedClassCache>();
+
+    /**
+     * Incremented on every invalidation so that lookups running concurrently do not store outdated classes.
+     */
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+
+    private ResolvedClassCache() {
+    }
+
+    /**
+     * @return the cache of the application using the given class resolver
+     */
+    public static ResolvedClassCache forResolver(IClassResolver classResolver) {
+        synchronized (CACHES) {
+            ResolvedClassCache cache = CACHES.get(classResolver);
+            if (cache == null) {
+                cache = new ResolvedClassCache();
+                CACHES.put(classResolver, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Drops all cached classes.
+     */
+    public static void invalidateAll() {
+        GENERATION.incrementAndGet();
+        for (ResolvedClassCache cache : getCaches()) {
+            cache.classes.clear();
+        }
+    }
+
+    /**
+     * Drops the cached classes loaded by the given bundle; called whenever a bundle stops (and so might be refreshed or
+     * uninstalled).
+     */
+    public static void invalidate(Bundle bundle) {
+        GENERATION.incrementAndGet();
+        for (ResolvedClassCache cache : getCaches()) {
+            for (Iterator<Class<?>> iterator = cache.classes.values().iterator(); iterator.hasNext();) {
+                if (isLoadedBy(iterator.next(), bundle)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put(String, Class, long)} by a lookup started now
+     */
+    public static long getGeneration() {
+        return GENERATION.get();
+    }
+
+    private static List<ResolvedClassCache> getCaches() {
+        synchronized (CACHES) {
+            return new ArrayList<ResolvedClassCache>(CACHES.values());
+        }
+    }
+
+    /**
+     * Arrays count as loaded by the bundle of their component type.
+     */
+    private static boolean isLoadedBy(Class<?> resolvedClass, Bundle bundle) {
+        ClassLoader classLoader = resolvedClass.getClassLoader();
+        return classLoader instanceof BundleReference
+                && ((BundleReference) classLoader).getBundle().getBundleId() == bundle.getBundleId();
+    }
+
+    /**
+     * @return the cached class or <code>null</code> if it has not been resolved yet
+     */
+    public Class<?> get(String className) {
+        return classes.get(className);
+    }
+
+    /**
+     * Remembers a resolved class unless the caches had been invalidated since the lookup started.
+     */
+    public void put(String className, Class<?> resolvedClass, long startGeneration) {
+        classes.put(className, resolvedClass);
+        if (GENERATION.get() != startGeneration) {
+            classes.remove(className, resolvedClass);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Properties;
 import org.ops4j.pax.wicket.api.NoBeanAvailableForInjectionException;
 import org.ops4j.pax.wicket.api.PaxWicketBean;
 import org.ops4j.pax.wicket.api.PaxWicketInjector;
+import org.ops4j.pax.wicket.api.SelectivePaxWicketInjector;
 import org.ops4j.pax.wicket.internal.injection.BundleAnalysingComponentInstantiationListener;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
@@ -136,7 +137,12 @@ public final class BundleInjectionProviderHelper {
         }
     }
 
-    private final class BundleInjectionResolver implements PaxWicketInjector, ManagedService {
+    private final class BundleInjectionResolver implements SelectivePaxWicketInjector, ManagedService {
+
+        public boolean canInject(Class<?> toHandle) {
+            BundleAnalysingComponentInstantiationListener listener = bundleAnalysingComponentInstantiationListener;
+            return listener != null && listener.injectionPossible(toHandle);
+        }
 
         public void inject(Object toInject, Class<?> toHandle) {
             validateNotNull(bundleAnalysingComponentInstantiationListener,
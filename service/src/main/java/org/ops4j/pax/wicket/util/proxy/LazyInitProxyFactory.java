@@ -17,7 +17,10 @@ package org.ops4j.pax.wicket.util.proxy;
 
 import net.sf.cglib.core.DefaultNamingPolicy;
 import net.sf.cglib.core.Predicate;
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
 import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
 import org.apache.wicket.Application;
@@ -30,12 +33,17 @@ import org.ops4j.pax.wicket.util.proxy.IProxyTargetLocator.ReleasableProxyTarget
 import java.io.InvalidClassException;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 public class LazyInitProxyFactory {
 
@@ -44,6 +52,43 @@ public class LazyInitProxyFactory {
             float.class, Float.class, double.class, Double.class, char.class, Character.class,
             boolean.class, Boolean.class});
 
+    private static final MethodInterceptor PROTOTYPE_INTERCEPTOR = new PrototypeInterceptor();
+
+    /**
+     * Kinds of the methods called on a proxy; for cglib proxies the kind is also the index of the callback handling
+     * the method.
+     */
+    private static final int TARGET = 0;
+    private static final int FINALIZE = 1;
+    private static final int EQUALS = 2;
+    private static final int HASH_CODE = 3;
+    private static final int TO_STRING = 4;
+    private static final int WRITE_REPLACE = 5;
+    private static final int OBJECT_LOCATOR = 6;
+    private static final int METHOD_KIND_COUNT = 7;
+
+    private static final CallbackFilter METHOD_KIND_FILTER = new MethodKindFilter();
+
+    /**
+     * Callbacks of a cglib proxy besides its {@link CGLibInterceptor}, which takes the {@link #TARGET} slot.
+     */
+    private static final Callback[] SPECIAL_METHOD_INTERCEPTORS = new Callback[METHOD_KIND_COUNT];
+
+    static {
+        for (int kind = TARGET + 1; kind < METHOD_KIND_COUNT; kind++) {
+            SPECIAL_METHOD_INTERCEPTORS[kind] = new SpecialMethodInterceptor(kind);
+        }
+    }
+
+    /**
+     * Generated proxy classes per classloader they are defined in and proxied type. Both keys are weak so refreshed
+     * bundles can be unloaded; the entries reference their keys and are therefore only weakly referenced. The handlers
+     * of the proxies keep their proxy class, so an entry is only collected once no proxy of it is left; generating it
+     * again is cheap since cglib and the jdk keep the generated classes as long as their classloader lives.
+     */
+    private static final Map<ClassLoader, Map<Class<?>, WeakReference<ProxyClass>>> PROXY_CLASSES =
+        new WeakHashMap<ClassLoader, Map<Class<?>, WeakReference<ProxyClass>>>();
+
     public static Object createProxy(final Class<?> type, final IProxyTargetLocator locator) {
         if (PRIMITIVES.contains(type) || Enum.class.isAssignableFrom(type)) {
             // We special-case primitives as sometimes people use these as
@@ -55,40 +100,187 @@ public class LazyInitProxyFactory {
                 ((IProxyTargetLocator.ReleasableProxyTarget) proxy).releaseTarget();
             }
             return realTarget;
-        } else if (type.isInterface()) {
-            JdkHandler handler = new JdkHandler(type, locator);
+        } else {
+            ProxyClass proxyClass = getProxyClass(type);
+            if (type.isInterface()) {
+                return proxyClass.newInstance(new JdkHandler(type, locator, (JdkProxyClass) proxyClass));
+            }
+            return proxyClass.newInstance(new CGLibInterceptor(type, locator, proxyClass));
+        }
+    }
 
-            try {
-                return Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
-                        new Class[]{type, Serializable.class, ILazyInitProxy.class,
-                                IWriteReplace.class}, handler);
-            } catch (IllegalArgumentException e) {
-                // While in the original Wicket Environment this is a failure of the context-classloader in PAX-WICKET
-                // this is always an error of missing imports into the classloader. Right now we can do nothing here but
-                // inform the user about the problem and throw an IllegalStateException instead wrapping up and
-                // presenting the real problem.
-                // TODO: [PAXWICKET-126] It's the same import problem here
-                throw new IllegalStateException("The real problem is that the used wrapper classes are not imported " +
-                        "by the bundle using injection", e);
+    /**
+     * @return the cached proxy class for the type in the classloader the proxy is defined in (the context classloader
+     *         for interfaces, the classloader of the type for classes); the proxy class is generated if required
+     */
+    private static ProxyClass getProxyClass(Class<?> type) {
+        ClassLoader classLoader =
+            type.isInterface() ? Thread.currentThread().getContextClassLoader() : type.getClassLoader();
+        synchronized (PROXY_CLASSES) {
+            Map<Class<?>, WeakReference<ProxyClass>> proxyClasses = PROXY_CLASSES.get(classLoader);
+            if (proxyClasses != null) {
+                WeakReference<ProxyClass> reference = proxyClasses.get(type);
+                ProxyClass proxyClass = reference == null ? null : reference.get();
+                if (proxyClass != null) {
+                    return proxyClass;
+                }
+            }
+        }
+        ProxyClass proxyClass = type.isInterface() ? createJdkProxyClass(type, classLoader) : createCGLibProxyClass(type);
+        synchronized (PROXY_CLASSES) {
+            Map<Class<?>, WeakReference<ProxyClass>> proxyClasses = PROXY_CLASSES.get(classLoader);
+            if (proxyClasses == null) {
+                proxyClasses = new WeakHashMap<Class<?>, WeakReference<ProxyClass>>();
+                PROXY_CLASSES.put(classLoader, proxyClasses);
             }
+            proxyClasses.put(type, new WeakReference<ProxyClass>(proxyClass));
+        }
+        return proxyClass;
+    }
 
-        } else {
-            CGLibInterceptor handler = new CGLibInterceptor(type, locator);
-
-            Enhancer e = new Enhancer();
-            e.setInterfaces(new Class[]{Serializable.class, ILazyInitProxy.class,
-                    IWriteReplace.class});
-            e.setSuperclass(type);
-            e.setCallback(handler);
-            e.setNamingPolicy(new DefaultNamingPolicy() {
-                @Override
-                public String getClassName(final String prefix, final String source,
-                                           final Object key, final Predicate names) {
-                    return super.getClassName("WICKET_" + prefix, source, key, names);
+    private static ProxyClass createJdkProxyClass(Class<?> type, ClassLoader classLoader) {
+        try {
+            Class<?>[] interfaces = new Class[]{ type, Serializable.class, ILazyInitProxy.class, IWriteReplace.class };
+            Class<?> proxyClass = Proxy.getProxyClass(classLoader, interfaces);
+            return new JdkProxyClass(proxyClass.getConstructor(InvocationHandler.class), interfaces);
+        } catch (IllegalArgumentException e) {
+            // While in the original Wicket Environment this is a failure of the context-classloader in PAX-WICKET
+            // this is always an error of missing imports into the classloader. Right now we can do nothing here but
+            // inform the user about the problem and throw an IllegalStateException instead wrapping up and
+            // presenting the real problem.
+            // TODO: [PAXWICKET-126] It's the same import problem here
+            throw new IllegalStateException("The real problem is that the used wrapper classes are not imported " +
+                    "by the bundle using injection", e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Proxy class for " + type.getName() + " has no handler constructor", e);
+        }
+    }
+
+    private static ProxyClass createCGLibProxyClass(Class<?> type) {
+        Enhancer e = new Enhancer();
+        e.setInterfaces(new Class[]{Serializable.class, ILazyInitProxy.class,
+                IWriteReplace.class});
+        e.setSuperclass(type);
+        Callback[] prototypeCallbacks = new Callback[METHOD_KIND_COUNT];
+        Arrays.fill(prototypeCallbacks, PROTOTYPE_INTERCEPTOR);
+        e.setCallbacks(prototypeCallbacks);
+        e.setCallbackFilter(METHOD_KIND_FILTER);
+        e.setNamingPolicy(new DefaultNamingPolicy() {
+            @Override
+            public String getClassName(final String prefix, final String source,
+                                       final Object key, final Predicate names) {
+                return super.getClassName("WICKET_" + prefix, source, key, names);
+            }
+        });
+        return new CGLibProxyClass((Factory) e.create());
+    }
+
+    /**
+     * A generated proxy class and the fastest way to create an instance of it for a given handler.
+     */
+    private abstract static class ProxyClass {
+
+        abstract Object newInstance(Object handler);
+    }
+
+    /**
+     * Besides its constructor, a jdk proxy class knows the kind of each of its special methods, so a call only costs a
+     * lookup in an immutable map.
+     */
+    private static final class JdkProxyClass extends ProxyClass {
+
+        private final Constructor<?> constructor;
+        private final Map<Method, Integer> specialMethods = new HashMap<Method, Integer>();
+
+        private JdkProxyClass(Constructor<?> constructor, Class<?>[] interfaces) {
+            this.constructor = constructor;
+            addSpecialMethods(Object.class.getMethods());
+            for (Class<?> proxiedInterface : interfaces) {
+                addSpecialMethods(proxiedInterface.getMethods());
+            }
+        }
+
+        private void addSpecialMethods(Method[] methods) {
+            for (Method method : methods) {
+                int kind = getMethodKind(method);
+                if (kind != TARGET) {
+                    specialMethods.put(method, Integer.valueOf(kind));
                 }
-            });
+            }
+        }
+
+        int kindOf(Method method) {
+            Integer kind = specialMethods.get(method);
+            return kind == null ? TARGET : kind.intValue();
+        }
+
+        @Override
+        Object newInstance(Object handler) {
+            try {
+                return constructor.newInstance(handler);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Could not create proxy instance", e.getTargetException());
+            } catch (InstantiationException e) {
+                throw new IllegalStateException("Could not create proxy instance", e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Could not create proxy instance", e);
+            }
+        }
+    }
 
-            return e.create();
+    /**
+     * Instances are created via {@link Factory#newInstance(Callback[])} of a prototype, which is a plain constructor
+     * call in the generated class. The generated class routes each method to the callback of its kind, see
+     * {@link MethodKindFilter}.
+     */
+    private static final class CGLibProxyClass extends ProxyClass {
+
+        private final Factory prototype;
+
+        private CGLibProxyClass(Factory prototype) {
+            this.prototype = prototype;
+        }
+
+        @Override
+        Object newInstance(Object handler) {
+            Callback[] callbacks = SPECIAL_METHOD_INTERCEPTORS.clone();
+            callbacks[TARGET] = (Callback) handler;
+            return prototype.newInstance(callbacks);
+        }
+    }
+
+    /**
+     * Classifies the methods of a cglib proxy class once while the class is generated.
+     */
+    private static final class MethodKindFilter implements CallbackFilter {
+        public int accept(Method method) {
+            return getMethodKind(method);
+        }
+    }
+
+    /**
+     * Handles the methods of one kind other than {@link #TARGET} for all cglib proxies, on behalf of the
+     * {@link CGLibInterceptor} of the proxy called.
+     */
+    private static final class SpecialMethodInterceptor implements MethodInterceptor {
+
+        private final int kind;
+
+        private SpecialMethodInterceptor(int kind) {
+            this.kind = kind;
+        }
+
+        public Object intercept(Object object, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+            return invokeSpecialMethod(kind, ((Factory) object).getCallback(TARGET), args);
+        }
+    }
+
+    /**
+     * Callback of the prototypes; only ever called if the constructor of the proxied class calls one of its methods.
+     */
+    private static final class PrototypeInterceptor implements MethodInterceptor {
+        public Object intercept(Object object, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+            return proxy.invokeSuper(object, args);
         }
     }
 
@@ -149,28 +341,28 @@ public class LazyInitProxyFactory {
 
         private transient Object target;
 
+        /**
+         * Keeps the cached proxy class alive as long as this proxy exists.
+         */
+        private transient ProxyClass proxyClass;
+
         public CGLibInterceptor(Class<?> type, IProxyTargetLocator locator) {
+            this(type, locator, null);
+        }
+
+        private CGLibInterceptor(Class<?> type, IProxyTargetLocator locator, ProxyClass proxyClass) {
             super();
             typeName = type.getName();
             this.locator = locator;
+            this.proxyClass = proxyClass;
         }
 
+        /**
+         * Only called for the methods of the proxied type; the special methods are routed to the
+         * {@link SpecialMethodInterceptor}s by the generated class.
+         */
         public Object intercept(Object object, Method method, Object[] args, MethodProxy proxy)
                 throws Throwable {
-            if (isFinalizeMethod(method)) {
-                // swallow finalize call
-                return null;
-            } else if (isEqualsMethod(method)) {
-                return equals(args[0]) ? Boolean.TRUE : Boolean.FALSE;
-            } else if (isHashCodeMethod(method)) {
-                return new Integer(hashCode());
-            } else if (isToStringMethod(method)) {
-                return toString();
-            } else if (isWriteReplaceMethod(method)) {
-                return writeReplace();
-            } else if (method.getDeclaringClass().equals(ILazyInitProxy.class)) {
-                return getObjectLocator();
-            }
             if (target == null) {
                 target = locator.locateProxyTarget();
             }
@@ -214,6 +406,11 @@ public class LazyInitProxyFactory {
 
         private transient Object target;
 
+        /**
+         * Keeps the cached proxy class alive as long as this proxy exists; knows the kinds of the special methods.
+         */
+        private transient JdkProxyClass proxyClass;
+
         /**
          * Constructor
          *
@@ -221,25 +418,20 @@ public class LazyInitProxyFactory {
          * @param locator object locator used to locate the object this proxy represents
          */
         public JdkHandler(Class<?> type, IProxyTargetLocator locator) {
+            this(type, locator, null);
+        }
+
+        private JdkHandler(Class<?> type, IProxyTargetLocator locator, JdkProxyClass proxyClass) {
             super();
             this.locator = locator;
             typeName = type.getName();
+            this.proxyClass = proxyClass;
         }
 
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            if (isFinalizeMethod(method)) {
-                // swallow finalize call
-                return null;
-            } else if (isEqualsMethod(method)) {
-                return equals(args[0]) ? Boolean.TRUE : Boolean.FALSE;
-            } else if (isHashCodeMethod(method)) {
-                return new Integer(hashCode());
-            } else if (isToStringMethod(method)) {
-                return toString();
-            } else if (method.getDeclaringClass().equals(ILazyInitProxy.class)) {
-                return getObjectLocator();
-            } else if (isWriteReplaceMethod(method)) {
-                return writeReplace();
+            int kind = proxyClass != null ? proxyClass.kindOf(method) : getMethodKind(method);
+            if (kind != TARGET) {
+                return invokeSpecialMethod(kind, this, args);
             }
 
             if (target == null) {
@@ -269,6 +461,51 @@ public class LazyInitProxyFactory {
         }
     }
 
+    /**
+     * @return the kind of the method, one of the constants like {@link #TARGET}
+     */
+    private static int getMethodKind(Method method) {
+        if (isFinalizeMethod(method)) {
+            return FINALIZE;
+        } else if (isEqualsMethod(method)) {
+            return EQUALS;
+        } else if (isHashCodeMethod(method)) {
+            return HASH_CODE;
+        } else if (isToStringMethod(method)) {
+            return TO_STRING;
+        } else if (isWriteReplaceMethod(method)) {
+            return WRITE_REPLACE;
+        } else if (method.getDeclaringClass().equals(ILazyInitProxy.class)) {
+            return OBJECT_LOCATOR;
+        }
+        return TARGET;
+    }
+
+    /**
+     * Answers a method of a kind other than {@link #TARGET} without locating the target of the proxy.
+     *
+     * @param handler the {@link JdkHandler} or {@link CGLibInterceptor} of the proxy
+     */
+    private static Object invokeSpecialMethod(int kind, Object handler, Object[] args) throws ObjectStreamException {
+        switch (kind) {
+            case FINALIZE:
+                // swallow finalize call
+                return null;
+            case EQUALS:
+                return handler.equals(args[0]) ? Boolean.TRUE : Boolean.FALSE;
+            case HASH_CODE:
+                return Integer.valueOf(handler.hashCode());
+            case TO_STRING:
+                return handler.toString();
+            case WRITE_REPLACE:
+                return ((IWriteReplace) handler).writeReplace();
+            case OBJECT_LOCATOR:
+                return ((ILazyInitProxy) handler).getObjectLocator();
+            default:
+                throw new IllegalArgumentException("Not a special method kind: " + kind);
+        }
+    }
+
     /**
      * Checks if the method is derived from Object.equals()
      *
@@ -0,0 +1,178 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.util.serialization;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses serialized pages with pooled {@link Deflater}s, {@link Inflater}s and buffers, so
+ * compressing a page neither allocates native zlib state nor scratch buffers. Compressed data starts with a two byte
+ * marker (which never starts a java serialization stream) and the uncompressed length.
+ */
+final class CompressionCodecPool {
+
+    private static final byte MARKER_0 = 'P';
+    private static final byte MARKER_1 = 'Z';
+    private static final int HEADER_LENGTH = 6;
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    /**
+     * Buffers grown beyond this size are not kept in the pool.
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    private final int level;
+    private final int maxIdle;
+
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger idleDeflaters = new AtomicInteger();
+    private final AtomicInteger idleInflaters = new AtomicInteger();
+    private final AtomicInteger idleBuffers = new AtomicInteger();
+
+    CompressionCodecPool(int level) {
+        this.level = level;
+        maxIdle = 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    static boolean isCompressed(byte[] data) {
+        return data.length >= HEADER_LENGTH && data[0] == MARKER_0 && data[1] == MARKER_1;
+    }
+
+    /**
+     * @return the compressed data or the given data itself if compressing does not make it smaller
+     */
+    byte[] compress(byte[] data) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        } else {
+            idleDeflaters.decrementAndGet();
+        }
+        byte[] buffer = borrowBuffer(data.length);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            int length = HEADER_LENGTH;
+            while (!deflater.finished()) {
+                if (length >= data.length) {
+                    // not worth it, keep the data uncompressed
+                    return data;
+                }
+                if (length == buffer.length) {
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    buffer = grown;
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (length >= data.length) {
+                return data;
+            }
+            byte[] compressed = new byte[length];
+            System.arraycopy(buffer, 0, compressed, 0, length);
+            compressed[0] = MARKER_0;
+            compressed[1] = MARKER_1;
+            compressed[2] = (byte) (data.length >>> 24);
+            compressed[3] = (byte) (data.length >>> 16);
+            compressed[4] = (byte) (data.length >>> 8);
+            compressed[5] = (byte) data.length;
+            return compressed;
+        } finally {
+            deflater.reset();
+            release(deflaters, idleDeflaters, deflater);
+            if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+                release(buffers, idleBuffers, buffer);
+            }
+        }
+    }
+
+    /**
+     * @param data compressed data (see {@link #isCompressed(byte[])})
+     */
+    byte[] decompress(byte[] data) throws DataFormatException {
+        int length =
+            (data[2] & 0xFF) << 24 | (data[3] & 0xFF) << 16 | (data[4] & 0xFF) << 8 | data[5] & 0xFF;
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            idleInflaters.decrementAndGet();
+        }
+        try {
+            byte[] decompressed = new byte[length];
+            inflater.setInput(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+            int offset = 0;
+            while (offset < length) {
+                int inflated = inflater.inflate(decompressed, offset, length - offset);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Compressed page is truncated");
+                }
+                offset += inflated;
+            }
+            return decompressed;
+        } finally {
+            inflater.reset();
+            release(inflaters, idleInflaters, inflater);
+        }
+    }
+
+    private byte[] borrowBuffer(int dataLength) {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            return new byte[Math.max(HEADER_LENGTH, Math.min(dataLength, INITIAL_BUFFER_SIZE))];
+        }
+        idleBuffers.decrementAndGet();
+        return buffer;
+    }
+
+    private <T> void release(Queue<T> pool, AtomicInteger idle, T element) {
+        if (idle.incrementAndGet() <= maxIdle) {
+            pool.offer(element);
+        } else {
+            idle.decrementAndGet();
+            if (element instanceof Deflater) {
+                ((Deflater) element).end();
+            } else if (element instanceof Inflater) {
+                ((Inflater) element).end();
+            }
+        }
+    }
+
+    /**
+     * Releases the native resources of all pooled codecs.
+     */
+    void dispose() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+        buffers.clear();
+        idleDeflaters.set(0);
+        idleInflaters.set(0);
+        idleBuffers.set(0);
+    }
+}
@@ -17,11 +17,17 @@ package org.ops4j.pax.wicket.util.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.application.IClassResolver;
+import org.ops4j.pax.wicket.internal.util.ResolvedClassCache;
 
 /**
  * @author edward.yakop@gmail.com
@@ -30,11 +36,22 @@ import org.apache.wicket.application.IClassResolver;
 public final class PaxWicketObjectInputStream extends ObjectInputStream {
 
     private final IClassResolver classResolver;
+    private final ResolvedClassCache classCache;
+    /**
+     * The classes resolved by this stream, so the shared cache is only asked once per class and stream.
+     */
+    private final Map<String, Class<?>> resolvedClasses = new HashMap<String, Class<?>>();
+
+    /**
+     * Set while reading the stream header, i.e. before the constructor assigns any other field.
+     */
+    private boolean compactClassDescriptors;
 
     public PaxWicketObjectInputStream(InputStream inputStream, IClassResolver resolver) throws IOException {
         super(inputStream);
 
         classResolver = resolver;
+        classCache = ResolvedClassCache.forResolver(resolver);
         enableResolveObject(true);
     }
 
@@ -51,17 +68,119 @@ public final class PaxWicketObjectInputStream extends ObjectInputStream {
         }
     }
 
+    @Override
+    protected void readStreamHeader() throws IOException {
+        short magic = readShort();
+        short version = readShort();
+        if (magic != STREAM_MAGIC
+                || (version != STREAM_VERSION && version != PaxWicketObjectOutputStream.COMPACT_STREAM_VERSION)) {
+            throw new StreamCorruptedException(String.format("invalid stream header: %04X%04X", magic, version));
+        }
+        compactClassDescriptors = version == PaxWicketObjectOutputStream.COMPACT_STREAM_VERSION;
+    }
+
+    /**
+     * Streams with compact class descriptors only contain name, serial version uid and field layout fingerprint of a
+     * class; the descriptor of the local class is used instead as long as its fields did not change.
+     */
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        if (!compactClassDescriptors) {
+            return super.readClassDescriptor();
+        }
+        String className = readUTF();
+        long serialVersionUID = readLong();
+        long layoutFingerprint = readLong();
+        ObjectStreamClass localDescriptor = ObjectStreamClass.lookup(resolveClassName(className));
+        if (localDescriptor == null) {
+            throw new InvalidClassException(className, "local class is not serializable");
+        }
+        if (localDescriptor.getSerialVersionUID() != serialVersionUID) {
+            throw new InvalidClassException(className, String.format(
+                "local class incompatible: stream classdesc serialVersionUID = %d, local class serialVersionUID = %d",
+                serialVersionUID, localDescriptor.getSerialVersionUID()));
+        }
+        if (PaxWicketObjectOutputStream.layoutFingerprint(localDescriptor) != layoutFingerprint) {
+            throw new InvalidClassException(className,
+                "local class incompatible: serializable fields differ from the stream class");
+        }
+        return localDescriptor;
+    }
+
     @Override
     protected final Class<?> resolveClass(ObjectStreamClass objectStreamClass) throws IOException,
         ClassNotFoundException {
         String className = objectStreamClass.getName();
+        Class<?> cached = getCachedClass(className);
+        if (cached != null) {
+            return cached;
+        }
+        long startGeneration = ResolvedClassCache.getGeneration();
 
         Class<?> candidate = resolveClassByClassResolver(className);
-        if (candidate != null) {
-            return candidate;
+        if (candidate == null) {
+            candidate = super.resolveClass(objectStreamClass);
         }
+        putCachedClass(className, candidate, startGeneration);
+        return candidate;
+    }
+
+    /**
+     * Like {@link #resolveClass(ObjectStreamClass)} for a class known by name only.
+     */
+    private Class<?> resolveClassName(String className) throws ClassNotFoundException {
+        Class<?> cached = getCachedClass(className);
+        if (cached != null) {
+            return cached;
+        }
+        long startGeneration = ResolvedClassCache.getGeneration();
+
+        Class<?> candidate;
+        if (className.startsWith("[")) {
+            candidate = resolveArrayClass(className);
+        } else {
+            candidate = resolveClassByClassResolver(className);
+            if (candidate == null) {
+                candidate = Class.forName(className, false, getFallbackClassLoader());
+            }
+        }
+        putCachedClass(className, candidate, startGeneration);
+        return candidate;
+    }
+
+    private Class<?> getCachedClass(String className) {
+        Class<?> cached = resolvedClasses.get(className);
+        if (cached == null) {
+            cached = classCache.get(className);
+            if (cached != null) {
+                resolvedClasses.put(className, cached);
+            }
+        }
+        return cached;
+    }
+
+    private void putCachedClass(String className, Class<?> resolvedClass, long startGeneration) {
+        resolvedClasses.put(className, resolvedClass);
+        classCache.put(className, resolvedClass, startGeneration);
+    }
+
+    private Class<?> resolveArrayClass(String className) throws ClassNotFoundException {
+        String componentName = className.substring(1);
+        Class<?> componentClass;
+        if (componentName.startsWith("[")) {
+            componentClass = resolveClassName(componentName);
+        } else if (componentName.startsWith("L")) {
+            componentClass = resolveClassName(componentName.substring(1, componentName.length() - 1));
+        } else {
+            // array of primitives
+            return Class.forName(className);
+        }
+        return Array.newInstance(componentClass, 0).getClass();
+    }
 
-        return super.resolveClass(objectStreamClass);
+    private static ClassLoader getFallbackClassLoader() {
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return contextClassLoader != null ? contextClassLoader : PaxWicketObjectInputStream.class.getClassLoader();
     }
 
     private Class<?> resolveClassByClassResolver(String className) {
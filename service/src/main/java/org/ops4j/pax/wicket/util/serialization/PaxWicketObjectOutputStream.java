@@ -23,6 +23,8 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.NotSerializableException;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
 import java.io.OutputStream;
 
 import static org.apache.wicket.core.util.io.SerializableChecker.isAvailable;
@@ -35,11 +37,34 @@ import static org.ops4j.lang.NullArgumentException.validateNotNull;
 public class PaxWicketObjectOutputStream extends ObjectOutputStream {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketObjectOutputStream.class);
+
+    /**
+     * Stream version marking streams with compact class descriptors (see
+     * {@link #PaxWicketObjectOutputStream(OutputStream, boolean)}); streams of the default format use
+     * {@link java.io.ObjectStreamConstants#STREAM_VERSION}.
+     */
+    static final short COMPACT_STREAM_VERSION = 0x5057;
+
     protected final ObjectOutputStream outputStream;
 
     public PaxWicketObjectOutputStream(OutputStream outputStream) throws IOException {
+        this(outputStream, false);
+    }
+
+    /**
+     * @param compactClassDescriptors <code>true</code> to describe classes only by name, serial version uid and a
+     *        fingerprint of their serializable fields instead of the full java serialization class descriptor; the
+     *        reading side uses the descriptor of its local class and rejects classes whose fields changed. Such streams
+     *        can only be read by a {@link PaxWicketObjectInputStream}.
+     */
+    public PaxWicketObjectOutputStream(OutputStream outputStream, boolean compactClassDescriptors)
+        throws IOException {
         validateNotNull(outputStream, "outputStream");
-        this.outputStream = new OSGiAwareOutputStream(outputStream);
+        if (compactClassDescriptors) {
+            this.outputStream = new CompactOSGiAwareOutputStream(outputStream);
+        } else {
+            this.outputStream = new OSGiAwareOutputStream(outputStream);
+        }
     }
 
     @Override
@@ -88,7 +113,7 @@ public class PaxWicketObjectOutputStream extends ObjectOutputStream {
         outputStream.close();
     }
 
-    private static final class OSGiAwareOutputStream extends ObjectOutputStream {
+    private static class OSGiAwareOutputStream extends ObjectOutputStream {
 
         private OSGiAwareOutputStream(OutputStream outputStream)
             throws IOException {
@@ -111,4 +136,64 @@ public class PaxWicketObjectOutputStream extends ObjectOutputStream {
         }
     }
 
+    private static final class CompactOSGiAwareOutputStream extends OSGiAwareOutputStream {
+
+        private CompactOSGiAwareOutputStream(OutputStream outputStream) throws IOException {
+            super(outputStream);
+        }
+
+        @Override
+        protected void writeStreamHeader() throws IOException {
+            writeShort(STREAM_MAGIC);
+            writeShort(COMPACT_STREAM_VERSION);
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            writeUTF(desc.getName());
+            writeLong(desc.getSerialVersionUID());
+            writeLong(layoutFingerprint(desc));
+        }
+    }
+
+    /**
+     * The local descriptor is only a valid replacement for the written one if the serializable fields of the class and
+     * its super classes are the same; since classes may keep their serial version uid when fields are added, removed
+     * or retyped, the names and types of these fields are hashed into a fingerprint written along with each compact
+     * class descriptor.
+     */
+    static long layoutFingerprint(ObjectStreamClass desc) {
+        // 64 bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        Class<?> type = desc.forClass();
+        ObjectStreamClass current = desc;
+        while (current != null) {
+            // the fields of a descriptor are sorted (primitives first, then by name)
+            for (ObjectStreamField field : current.getFields()) {
+                hash = fingerprint(hash, field.getName());
+                hash = fingerprint(hash, field.isPrimitive() ? String.valueOf(field.getTypeCode()) : field
+                    .getTypeString());
+            }
+            // marks the end of the fields of one class of the hierarchy
+            hash = fingerprint(hash, "");
+            if (type == null) {
+                break;
+            }
+            type = type.getSuperclass();
+            current = type == null ? null : ObjectStreamClass.lookup(type);
+        }
+        return hash;
+    }
+
+    private static long fingerprint(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        // separator, so that "ab" + "c" and "a" + "bc" differ
+        hash ^= 0xff;
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+
 }
@@ -7,14 +7,132 @@ import org.apache.wicket.serialize.java.JavaSerializer;
 import org.apache.wicket.settings.IApplicationSettings;
 
 import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 
 /**
  * A simple wrapper for the original wicket serializer making it possible to serialize class which inject osgi
- * bundle based classes.
+ * bundle based classes. Optionally the serialized pages are compressed (see {@link CompressionCodecPool}).
  */
 public class PaxWicketSerializer extends JavaSerializer {
+
+    private final boolean compactClassDescriptors;
+    private final boolean compress;
+    private final CompressionCodecPool codecPool;
+
+    private final AtomicLong compressedPages = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong compressionNanos = new AtomicLong();
+    private final AtomicLong decompressionNanos = new AtomicLong();
+
     public PaxWicketSerializer(String applicationKey) {
+        this(applicationKey, false);
+    }
+
+    /**
+     * @param compactClassDescriptors <code>true</code> to write classes by name and serial version uid only (see
+     *        {@link PaxWicketObjectOutputStream#PaxWicketObjectOutputStream(OutputStream, boolean)}); both formats can
+     *        be read regardless of this setting
+     */
+    public PaxWicketSerializer(String applicationKey, boolean compactClassDescriptors) {
+        this(applicationKey, compactClassDescriptors, 0);
+    }
+
+    /**
+     * @param compressionLevel deflate level (1 to 9) used to compress serialized pages, <code>0</code> to store them
+     *        uncompressed; compressed pages can be read regardless of this setting
+     */
+    public PaxWicketSerializer(String applicationKey, boolean compactClassDescriptors, int compressionLevel) {
         super(applicationKey);
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9 but is " + compressionLevel);
+        }
+        this.compactClassDescriptors = compactClassDescriptors;
+        compress = compressionLevel > 0;
+        codecPool = new CompressionCodecPool(compress ? compressionLevel : Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Override
+    public byte[] serialize(Object object) {
+        byte[] data = super.serialize(object);
+        if (!compress || data == null) {
+            return data;
+        }
+        long start = System.nanoTime();
+        byte[] compressed = codecPool.compress(data);
+        compressionNanos.addAndGet(System.nanoTime() - start);
+        compressedPages.incrementAndGet();
+        uncompressedBytes.addAndGet(data.length);
+        compressedBytes.addAndGet(compressed.length);
+        return compressed;
+    }
+
+    @Override
+    public Object deserialize(byte[] data) {
+        if (data == null || !CompressionCodecPool.isCompressed(data)) {
+            return super.deserialize(data);
+        }
+        long start = System.nanoTime();
+        byte[] decompressed;
+        try {
+            decompressed = codecPool.decompress(data);
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Could not decompress serialized page", e);
+        }
+        decompressionNanos.addAndGet(System.nanoTime() - start);
+        return super.deserialize(decompressed);
+    }
+
+    /**
+     * @return the number of pages compressed so far
+     */
+    public long getCompressedPageCount() {
+        return compressedPages.get();
+    }
+
+    /**
+     * @return the size of all compressed pages before compression
+     */
+    public long getUncompressedByteCount() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * @return the size of all compressed pages after compression (pages not getting smaller are stored as they are)
+     */
+    public long getCompressedByteCount() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * @return compressed size divided by uncompressed size of all pages compressed so far, <code>1</code> if none
+     */
+    public double getCompressionRatio() {
+        long uncompressed = uncompressedBytes.get();
+        return uncompressed == 0 ? 1 : (double) compressedBytes.get() / uncompressed;
+    }
+
+    /**
+     * @return the time spent compressing pages in nanoseconds
+     */
+    public long getCompressionNanos() {
+        return compressionNanos.get();
+    }
+
+    /**
+     * @return the time spent decompressing pages in nanoseconds
+     */
+    public long getDecompressionNanos() {
+        return decompressionNanos.get();
+    }
+
+    /**
+     * Releases the pooled compression codecs; called when the application is destroyed.
+     */
+    public void dispose() {
+        codecPool.dispose();
     }
 
     @Override
@@ -24,7 +142,7 @@ public class PaxWicketSerializer extends JavaSerializer {
 
     @Override
     protected ObjectOutputStream newObjectOutputStream(OutputStream out) throws IOException {
-        return new PaxWicketObjectOutputStream(out);
+        return new PaxWicketObjectOutputStream(out, compactClassDescriptors);
     }
 
     private IClassResolver getClassResolver() {
@@ -0,0 +1,121 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.apache.wicket.application.IClassResolver;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+public class BundleDelegatingClassResolverTest {
+
+    private BundleDelegatingClassResolver classResolver;
+
+    @Before
+    public void setup() throws Exception {
+        BundleContext bundleContext = mock(BundleContext.class);
+        when(bundleContext.registerService(anyString(), any(IClassResolver.class), any(Dictionary.class)))
+            .thenReturn(mock(ServiceRegistration.class));
+        classResolver = new BundleDelegatingClassResolver(bundleContext, "testapp");
+        classResolver.start();
+    }
+
+    @Test
+    public void resolveClass_shouldOnlyAskBundleContainingThePackage() throws Exception {
+        Bundle exporting = mockBundle("exporting", "org.example.api;version=\"[1,2)\";uses:=\"org.example.spi\"");
+        Bundle containing = mockBundle("containing", null, new URL("file:/org/example/impl/Impl.class"));
+        when(exporting.loadClass("org.example.api.Api")).thenReturn((Class) String.class);
+        when(containing.loadClass("org.example.impl.Impl")).thenReturn((Class) Integer.class);
+        classResolver.addBundle(exporting);
+        classResolver.addBundle(containing);
+
+        assertSame(String.class, classResolver.resolveClass("org.example.api.Api"));
+        assertSame(Integer.class, classResolver.resolveClass("org.example.impl.Impl"));
+
+        verify(containing, never()).loadClass("org.example.api.Api");
+        verify(exporting, never()).loadClass("org.example.impl.Impl");
+    }
+
+    @Test
+    public void resolveClass_shouldScanOtherBundlesIfOwnerFails() throws Exception {
+        Bundle exporting = mockBundle("exporting", "org.example.api");
+        Bundle other = mockBundle("other", null);
+        when(exporting.loadClass(anyString())).thenThrow(new ClassNotFoundException());
+        when(other.loadClass("org.example.api.Embedded")).thenReturn((Class) String.class);
+        classResolver.addBundle(exporting);
+        classResolver.addBundle(other);
+
+        assertSame(String.class, classResolver.resolveClass("org.example.api.Embedded"));
+        verify(exporting, times(1)).loadClass("org.example.api.Embedded");
+    }
+
+    @Test
+    public void resolveClass_shouldScanOtherBundlesIfContainingBundleFails() throws Exception {
+        Bundle containing = mockBundle("containing", null, new URL("file:/org/example/impl/Impl.class"));
+        Bundle embedding = mockBundle("embedding", null);
+        Bundle unrelated = mockBundle("unrelated", null);
+        when(containing.loadClass(anyString())).thenThrow(new ClassNotFoundException());
+        when(embedding.loadClass("org.example.impl.Embedded")).thenReturn((Class) Integer.class);
+        when(unrelated.loadClass(anyString())).thenThrow(new ClassNotFoundException());
+        classResolver.addBundle(containing);
+        classResolver.addBundle(unrelated);
+        classResolver.addBundle(embedding);
+
+        assertSame(Integer.class, classResolver.resolveClass("org.example.impl.Embedded"));
+        verify(containing, times(1)).loadClass("org.example.impl.Embedded");
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void resolveClass_shouldFailIfNoBundleContainsClass() throws Exception {
+        Bundle containing = mockBundle("containing", null, new URL("file:/org/example/impl/Impl.class"));
+        when(containing.loadClass(anyString())).thenThrow(new ClassNotFoundException());
+        classResolver.addBundle(containing);
+        classResolver.addBundle(mockBundle("other", null));
+
+        classResolver.resolveClass("org.example.impl.Missing");
+    }
+
+    private static Bundle mockBundle(String symbolicName, String exportPackage, URL... entries) {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getSymbolicName()).thenReturn(symbolicName);
+        Hashtable<String, String> headers = new Hashtable<String, String>();
+        if (exportPackage != null) {
+            headers.put(Constants.EXPORT_PACKAGE, exportPackage);
+        }
+        when(bundle.getHeaders()).thenReturn(headers);
+        when(bundle.findEntries("/", "*.class", true)).thenReturn(
+            Collections.enumeration(Arrays.asList(entries)));
+        return bundle;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.ops4j.pax.wicket.api.Constants.APPLICATION_NAME;
+
+import java.net.URL;
+import java.util.Iterator;
+
+import org.apache.wicket.application.IClassResolver;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+public class DelegatingClassResolverTest {
+
+    private BundleContext bundleContext;
+    private ServiceReference reference;
+    private CountingClassResolver resolver;
+    private DelegatingClassResolver delegatingClassResolver;
+
+    @Before
+    public void setup() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.createFilter(anyString())).thenAnswer(new Answer<Filter>() {
+            public Filter answer(InvocationOnMock invocation) throws Throwable {
+                return FrameworkUtil.createFilter((String) invocation.getArguments()[0]);
+            }
+        });
+        when(bundleContext.getProperty(Constants.FRAMEWORK_VERSION)).thenReturn("1.5.0");
+        reference = mock(ServiceReference.class);
+        when(reference.getProperty(APPLICATION_NAME)).thenReturn("testapp");
+        resolver = new CountingClassResolver();
+        when(bundleContext.getServiceReferences((String) any(), (String) any())).thenReturn(
+            new ServiceReference[]{ reference });
+        when(bundleContext.getService(reference)).thenReturn(resolver);
+
+        delegatingClassResolver = new DelegatingClassResolver(bundleContext, "testapp");
+        delegatingClassResolver.intialize();
+    }
+
+    @Test
+    public void resolveClass_shouldAnswerSecondLookupFromCache() throws Exception {
+        assertSame(String.class, delegatingClassResolver.resolveClass(String.class.getName()));
+        assertSame(String.class, delegatingClassResolver.resolveClass(String.class.getName()));
+
+        assertEquals(2, resolver.calls);
+        assertEquals(1, delegatingClassResolver.getCacheHitCount());
+        assertEquals(1, delegatingClassResolver.getCacheMissCount());
+    }
+
+    @Test
+    public void resolveClass_shouldRememberMisses() throws Exception {
+        assertUnresolvable("does.not.Exist");
+        assertUnresolvable("does.not.Exist");
+
+        assertEquals(1, resolver.calls);
+        assertEquals(1, delegatingClassResolver.getCacheHitCount());
+    }
+
+    @Test
+    public void modifiedService_shouldInvalidateMisses() throws Exception {
+        ArgumentCaptor<ServiceListener> listener = ArgumentCaptor.forClass(ServiceListener.class);
+        verify(bundleContext).addServiceListener(listener.capture(), anyString());
+        assertUnresolvable("does.not.Exist");
+
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, reference));
+        assertUnresolvable("does.not.Exist");
+
+        assertEquals(2, resolver.calls);
+    }
+
+    private void assertUnresolvable(String classname) {
+        try {
+            delegatingClassResolver.resolveClass(classname);
+            fail("Class " + classname + " must not be resolvable");
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+    }
+
+    private static class CountingClassResolver implements IClassResolver {
+
+        private int calls;
+
+        public Class<?> resolveClass(String classname) throws ClassNotFoundException {
+            calls++;
+            if (String.class.getName().equals(classname)) {
+                return String.class;
+            }
+            throw new ClassNotFoundException(classname);
+        }
+
+        public Iterator<URL> getResources(String name) {
+            return null;
+        }
+
+        public ClassLoader getClassLoader() {
+            throw new NotImplementedException("This method should NOT BE CALLED!");
+        }
+    }
+}
@@ -16,19 +16,25 @@
  */
 package org.ops4j.pax.wicket.internal;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.concurrent.Callable;
 import java.util.concurrent.FutureTask;
 
 import org.apache.wicket.Page;
+import org.apache.wicket.core.request.handler.BookmarkablePageRequestHandler;
+import org.apache.wicket.core.request.handler.PageProvider;
 import org.apache.wicket.util.tester.WicketTester;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.ops4j.pax.wicket.api.MountPointInfo;
+import org.ops4j.pax.wicket.api.PageMounter;
 import org.ops4j.pax.wicket.util.DefaultPageMounter;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -83,4 +89,31 @@ public class MountTest {
         new Thread(futureTask).start();
         futureTask.get(); // should not throw an ExecutionException
     }
+
+    @Test
+    public void addingService_shouldMountRemainingPagesIfOneFails() throws Exception {
+        MountPointInfo broken = mock(MountPointInfo.class);
+        when(broken.getPath()).thenReturn("");
+        when(broken.getPage()).thenAnswer(new PageAnswer());
+        MountPointInfo working = mock(MountPointInfo.class);
+        when(working.getPath()).thenReturn("working");
+        when(working.getPage()).thenAnswer(new PageAnswer());
+        PageMounter pageMounter = mock(PageMounter.class);
+        when(pageMounter.getMountPoints()).thenReturn(Arrays.asList(broken, working));
+        ServiceReference reference = mock(ServiceReference.class);
+        when(bundleContext.getService(reference)).thenReturn(pageMounter);
+        PageMounterTracker pageMounterTracker =
+            new PageMounterTracker(bundleContext, wicketTester.getApplication(), "testapp");
+
+        pageMounterTracker.addingService(reference);
+
+        assertEquals("working", wicketTester.getApplication().getRootRequestMapper()
+            .mapHandler(new BookmarkablePageRequestHandler(new PageProvider(TestPage.class))).toString());
+    }
+
+    private static final class PageAnswer implements Answer<Class<?>> {
+        public Class<?> answer(InvocationOnMock invocation) throws Throwable {
+            return TestPage.class;
+        }
+    }
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+import org.apache.wicket.util.tester.WicketTester;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.wicket.api.PageFactory;
+import org.ops4j.pax.wicket.internal.util.ResolvedClassCache;
+import org.osgi.framework.BundleContext;
+
+public class PaxWicketPageFactoryTest {
+
+    private WicketTester wicketTester;
+    private PaxWicketPageFactory pageFactory;
+
+    @SuppressWarnings("serial")
+    public static class BookmarkablePage extends WebPage {
+    }
+
+    @SuppressWarnings("serial")
+    public static class NonBookmarkablePage extends WebPage {
+
+        public NonBookmarkablePage(String title) {
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        wicketTester = new WicketTester();
+        pageFactory = new PaxWicketPageFactory(mock(BundleContext.class), "testapp");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        wicketTester.destroy();
+    }
+
+    @Test
+    public void newPage_shouldUseDefaultPageFactoryWithoutRegisteredFactory() {
+        assertTrue(pageFactory.newPage(BookmarkablePage.class) instanceof BookmarkablePage);
+        assertTrue(pageFactory.newPage(BookmarkablePage.class, new PageParameters()) instanceof BookmarkablePage);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void newPage_shouldUseRegisteredFactoryUntilRemoved() {
+        BookmarkablePage page = new BookmarkablePage();
+        PageFactory<BookmarkablePage> registered = mock(PageFactory.class);
+        when(registered.createPage(any(PageParameters.class))).thenReturn(page);
+
+        pageFactory.add(BookmarkablePage.class, registered);
+        assertSame(page, pageFactory.newPage(BookmarkablePage.class));
+        assertSame(page, pageFactory.newPage(BookmarkablePage.class, new PageParameters()));
+
+        pageFactory.remove(BookmarkablePage.class);
+        assertNotSame(page, pageFactory.newPage(BookmarkablePage.class));
+    }
+
+    @Test
+    public void isBookmarkable_shouldStayCorrectAcrossInvalidation() {
+        assertTrue(pageFactory.isBookmarkable(BookmarkablePage.class));
+        assertFalse(pageFactory.isBookmarkable(NonBookmarkablePage.class));
+
+        ResolvedClassCache.invalidateAll();
+
+        assertTrue(pageFactory.isBookmarkable(BookmarkablePage.class));
+        assertFalse(pageFactory.isBookmarkable(NonBookmarkablePage.class));
+    }
+}
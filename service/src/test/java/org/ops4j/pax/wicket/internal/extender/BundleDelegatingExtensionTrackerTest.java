@@ -0,0 +1,218 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.extender;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.ops4j.pax.wicket.api.Constants;
+import org.ops4j.pax.wicket.internal.BundleDelegatingClassResolver;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+public class BundleDelegatingExtensionTrackerTest {
+
+    private BundleDelegatingExtensionTracker tracker;
+    private ServiceRegistration registration;
+    private List<BundleDelegatingClassResolver> classResolvers;
+
+    @Before
+    public void setup() throws Exception {
+        BundleContext bundleContext = mock(BundleContext.class);
+        when(bundleContext.getProperty(Constants.SCAN_THREADS)).thenReturn("2");
+        registration = mock(ServiceRegistration.class);
+        classResolvers = new CopyOnWriteArrayList<BundleDelegatingClassResolver>();
+        when(bundleContext.registerService(anyString(), any(), any(Dictionary.class))).thenAnswer(
+            new Answer<ServiceRegistration>() {
+                public ServiceRegistration answer(InvocationOnMock invocation) throws Throwable {
+                    Object service = invocation.getArguments()[1];
+                    if (service instanceof BundleDelegatingClassResolver) {
+                        classResolvers.add((BundleDelegatingClassResolver) service);
+                    }
+                    return registration;
+                }
+            });
+        tracker = new BundleDelegatingExtensionTracker(bundleContext);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tracker.close();
+    }
+
+    @Test
+    public void addingService_shouldAnalyseBundlesWithoutBlockingBundleEvents() throws Exception {
+        final CountDownLatch analysing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean block = new AtomicBoolean();
+        Bundle slow = mockBundle("slow", 1001L, new Answer<Dictionary<String, String>>() {
+            public Dictionary<String, String> answer(InvocationOnMock invocation) throws Throwable {
+                if (block.get()) {
+                    analysing.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                return new Hashtable<String, String>();
+            }
+        });
+        final Bundle other = mockBundle("other", 1002L, null);
+        tracker.addRelevantBundle(slow);
+        tracker.addRelevantBundle(other);
+
+        final ServiceReference reference = mock(ServiceReference.class);
+        when(reference.getProperty(Constants.APPLICATION_NAME)).thenReturn("testapp");
+        block.set(true);
+        FutureTask<Void> adding = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() throws Exception {
+                tracker.addingService(reference, null);
+                return null;
+            }
+        });
+        new Thread(adding).start();
+        assertTrue(analysing.await(10, TimeUnit.SECONDS));
+
+        FutureTask<Void> removing = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() throws Exception {
+                tracker.removeRelevantBundle(other);
+                return null;
+            }
+        });
+        new Thread(removing).start();
+        try {
+            // fails with a timeout if the analysis holds the lock of the tracker
+            removing.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+        }
+        adding.get(10, TimeUnit.SECONDS);
+
+        // the analysed bundle has been published to the services of the application
+        verify(registration, atLeastOnce()).setProperties(any(Dictionary.class));
+    }
+
+    @Test
+    public void addRelevantBundle_shouldPublishToServicesReplacedWhileAnalysing() throws Exception {
+        ServiceReference reference = mockReference();
+        tracker.addingService(reference, null);
+        CountDownLatch analysing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Bundle slow = mockBundle("slow", 1001L, new BlockingHeaders(analysing, release));
+        when(slow.loadClass("org.example.Page")).thenReturn((Class) String.class);
+        FutureTask<Void> adding = addInSeparateThread(slow);
+        assertTrue(analysing.await(10, TimeUnit.SECONDS));
+
+        tracker.modifiedService(reference, null);
+        release.countDown();
+        adding.get(10, TimeUnit.SECONDS);
+
+        BundleDelegatingClassResolver current = classResolvers.get(classResolvers.size() - 1);
+        assertSame(String.class, current.resolveClass("org.example.Page"));
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void addRelevantBundle_shouldNotPublishBundleRemovedWhileAnalysing() throws Exception {
+        tracker.addingService(mockReference(), null);
+        CountDownLatch analysing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Bundle slow = mockBundle("slow", 1001L, new BlockingHeaders(analysing, release));
+        when(slow.loadClass("org.example.Page")).thenReturn((Class) String.class);
+        FutureTask<Void> adding = addInSeparateThread(slow);
+        assertTrue(analysing.await(10, TimeUnit.SECONDS));
+
+        tracker.removeRelevantBundle(slow);
+        release.countDown();
+        adding.get(10, TimeUnit.SECONDS);
+
+        classResolvers.get(0).resolveClass("org.example.Page");
+    }
+
+    private FutureTask<Void> addInSeparateThread(final Bundle bundle) {
+        FutureTask<Void> adding = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() throws Exception {
+                tracker.addRelevantBundle(bundle);
+                return null;
+            }
+        });
+        new Thread(adding).start();
+        return adding;
+    }
+
+    private static ServiceReference mockReference() {
+        ServiceReference reference = mock(ServiceReference.class);
+        when(reference.getProperty(Constants.APPLICATION_NAME)).thenReturn("testapp");
+        return reference;
+    }
+
+    /**
+     * Blocks the first analysis of the bundle until released.
+     */
+    private static final class BlockingHeaders implements Answer<Dictionary<String, String>> {
+
+        private final CountDownLatch analysing;
+        private final CountDownLatch release;
+        private final AtomicBoolean blocked = new AtomicBoolean();
+
+        private BlockingHeaders(CountDownLatch analysing, CountDownLatch release) {
+            this.analysing = analysing;
+            this.release = release;
+        }
+
+        public Dictionary<String, String> answer(InvocationOnMock invocation) throws Throwable {
+            if (!blocked.getAndSet(true)) {
+                analysing.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return new Hashtable<String, String>();
+        }
+    }
+
+    private static Bundle mockBundle(String symbolicName, long bundleId, Answer<Dictionary<String, String>> headers) {
+        Bundle bundle = mock(Bundle.class);
+        BundleContext bundleContext = mock(BundleContext.class);
+        when(bundle.getSymbolicName()).thenReturn(symbolicName);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        when(bundle.getBundleContext()).thenReturn(bundleContext);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        if (headers == null) {
+            when(bundle.getHeaders()).thenReturn(new Hashtable<String, String>());
+        } else {
+            when(bundle.getHeaders()).thenAnswer(headers);
+        }
+        return bundle;
+    }
+}
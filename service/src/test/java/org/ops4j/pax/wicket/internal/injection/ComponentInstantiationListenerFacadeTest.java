@@ -15,21 +15,42 @@
  */
 package org.ops4j.pax.wicket.internal.injection;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import org.apache.wicket.Component;
 import org.junit.Test;
+import org.ops4j.pax.wicket.api.PaxWicketBean;
 import org.ops4j.pax.wicket.api.PaxWicketInjector;
 
 public class ComponentInstantiationListenerFacadeTest {
 
+    @SuppressWarnings("serial")
+    private abstract static class InjectableComponent extends Component {
+        @PaxWicketBean
+        private Object service;
+
+        public InjectableComponent(String id) {
+            super(id);
+        }
+    }
+
     @Test
     public void testCallToFacade_shouldBeForwardedToRealClass() {
-        Component component = mock(Component.class);
+        Component component = mock(InjectableComponent.class);
         PaxWicketInjector injector = mock(PaxWicketInjector.class);
         new ComponentInstantiationListenerFacade(injector).onInstantiation(component);
         verify(injector).inject(component, component.getClass());
     }
 
+    @Test
+    public void testCallToFacade_shouldNotBeForwardedWithoutAnnotatedFields() {
+        Component component = mock(Component.class);
+        PaxWicketInjector injector = mock(PaxWicketInjector.class);
+        new ComponentInstantiationListenerFacade(injector).onInstantiation(component);
+        verify(injector, never()).inject(any(), any(Class.class));
+    }
+
 }
@@ -0,0 +1,79 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+public class ContainerHandlesTest {
+
+    private static final String FILTER = "(objectClass=java.lang.Runnable)";
+
+    private BundleContext bundleContext;
+    private ServiceReference reference;
+    private Object container;
+
+    @Before
+    public void setup() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(3L);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        reference = mock(ServiceReference.class);
+        container = new Object();
+        when(bundleContext.getServiceReferences(anyString(), anyString())).thenReturn(
+            new ServiceReference[]{ reference });
+        when(bundleContext.getService(reference)).thenReturn(container);
+    }
+
+    @After
+    public void tearDown() {
+        ContainerHandles.closeAll();
+    }
+
+    @Test
+    public void getContainers_shouldOnlyQueryRegistryAfterServiceEvent() throws Exception {
+        assertArrayEquals(new Object[]{ container }, lookup());
+        assertArrayEquals(new Object[]{ container }, lookup());
+        verify(bundleContext, times(1)).getServiceReferences(Runnable.class.getName(), FILTER);
+
+        ArgumentCaptor<ServiceListener> listener = ArgumentCaptor.forClass(ServiceListener.class);
+        verify(bundleContext).addServiceListener(listener.capture(), anyString());
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+
+        assertArrayEquals(new Object[]{ container }, lookup());
+        verify(bundleContext, times(2)).getServiceReferences(Runnable.class.getName(), FILTER);
+        verify(bundleContext).ungetService(reference);
+    }
+
+    private Object[] lookup() throws Exception {
+        return ContainerHandles.getContainers(bundleContext, Runnable.class.getName(), FILTER);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+import org.ops4j.pax.wicket.api.PaxWicketBean;
+
+public class InjectionPlanTest {
+
+    @Test
+    public void forClass_shouldCachePlanOfClass() {
+        InjectionPlan plan = InjectionPlan.forClass(Injected.class);
+
+        assertSame(plan, InjectionPlan.forClass(Injected.class));
+        assertEquals(1, plan.getHierarchicalFieldCount());
+        assertTrue(InjectionPlan.forClass(NotInjected.class).isEmpty());
+    }
+
+    @Test
+    public void forClass_shouldNotKeepClassLoaderOfPlannedClass() throws Exception {
+        WeakReference<ClassLoader> classLoader = planClassInSeparateClassLoader();
+
+        for (int i = 0; i < 50 && classLoader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertTrue("plan cache keeps the classloader", classLoader.get() == null);
+    }
+
+    private static WeakReference<ClassLoader> planClassInSeparateClassLoader() throws Exception {
+        ClassLoader classLoader = new ChildFirstClassLoader(NotInjected.class.getName());
+        Class<?> type = classLoader.loadClass(NotInjected.class.getName());
+        assertTrue(InjectionPlan.forClass(type).isEmpty());
+        return new WeakReference<ClassLoader>(classLoader);
+    }
+
+    public static class Injected {
+        @PaxWicketBean(name = "bean")
+        private Runnable bean;
+    }
+
+    public static class NotInjected {
+    }
+
+    /**
+     * Defines a copy of a single class, like a bundle which might be refreshed.
+     */
+    private static final class ChildFirstClassLoader extends ClassLoader {
+
+        private final String className;
+
+        private ChildFirstClassLoader(String className) {
+            super(InjectionPlanTest.class.getClassLoader());
+            this.className = className;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(className)) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded != null) {
+                return loaded;
+            }
+            try {
+                InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+                    bytes.write(buffer, 0, read);
+                }
+                in.close();
+                return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
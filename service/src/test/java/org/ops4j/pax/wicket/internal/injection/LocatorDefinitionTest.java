@@ -0,0 +1,97 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.wicket.api.PaxWicketBean;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+public class LocatorDefinitionTest {
+
+    private BundleContext bundleContext;
+    private Field field;
+
+    @Before
+    public void setup() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(7L);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        field = InjectedPage.class.getDeclaredField("service");
+    }
+
+    @After
+    public void tearDown() {
+        LocatorDefinition.clear();
+    }
+
+    @Test
+    public void intern_shouldReturnSameDefinitionForSameField() {
+        LocatorDefinition first = intern();
+        assertSame(first, intern());
+        assertSame(InjectedPage.class, first.getParent());
+    }
+
+    @Test
+    public void serialize_shouldWriteDefinitionOnceAndResolveToInternedOne() throws Exception {
+        LocatorDefinition definition = intern();
+
+        byte[] once = serialize(new Object[]{ definition });
+        byte[] twice = serialize(new Object[]{ definition, definition });
+        assertTrue("a repeated definition costs a back reference only", twice.length - once.length < 8);
+
+        Object[] deserialized = (Object[]) deserialize(twice);
+        assertSame(definition, deserialized[0]);
+        assertSame(definition, deserialized[1]);
+    }
+
+    private LocatorDefinition intern() {
+        return LocatorDefinition.intern(bundleContext, field, InjectedPage.class, null,
+            PaxWicketBean.INJECTION_SOURCE_SERVICE_REGISTRY);
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+
+    private static class InjectedPage {
+
+        @PaxWicketBean(injectionSource = PaxWicketBean.INJECTION_SOURCE_SERVICE_REGISTRY)
+        private Runnable service;
+    }
+}
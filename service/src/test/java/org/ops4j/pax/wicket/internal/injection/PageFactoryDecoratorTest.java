@@ -0,0 +1,97 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Dictionary;
+
+import net.sf.cglib.proxy.Factory;
+
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+import org.apache.wicket.util.tester.WicketTester;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.wicket.api.PaxWicketBean;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+public class PageFactoryDecoratorTest {
+
+    private WicketTester wicketTester;
+    private PageFactoryDecorator decorator;
+
+    @SuppressWarnings("serial")
+    public static class TestPage extends WebPage {
+
+        public TestPage() {
+        }
+
+        public TestPage(PageParameters parameters) {
+            super(parameters);
+        }
+    }
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        wicketTester = new WicketTester();
+        BundleContext bundleContext = mock(BundleContext.class);
+        when(bundleContext.registerService(any(String[].class), any(), any(Dictionary.class))).thenReturn(
+            mock(ServiceRegistration.class));
+        decorator = new PageFactoryDecorator();
+        decorator.setBundleContext(bundleContext);
+        decorator.setPageId("testPage");
+        decorator.setApplicationName("testapp");
+        decorator.setPageName("test");
+        decorator.setPageClass((Class<WebPage>) (Class<?>) TestPage.class);
+        decorator.setInjectionSource(PaxWicketBean.INJECTION_SOURCE_SPRING);
+        decorator.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        decorator.stop();
+        wicketTester.destroy();
+    }
+
+    @Test
+    public void createPage_shouldReuseEnhancedClassWithOwnComponentProxy() {
+        WebPage first = decorator.createPage(null);
+        WebPage second = decorator.createPage(new PageParameters());
+        WebPage withParameters = decorator.createPage(new PageParameters().add("id", "1"));
+
+        assertTrue(first instanceof TestPage);
+        assertSame(first.getClass(), second.getClass());
+        assertSame(first.getClass(), withParameters.getClass());
+        assertEquals("1", withParameters.getPageParameters().get("id").toString());
+        assertTrue(second.getPageParameters() == null || second.getPageParameters().isEmpty());
+
+        ComponentProxy callback = (ComponentProxy) ((Factory) first).getCallback(0);
+        assertEquals(PaxWicketBean.INJECTION_SOURCE_SPRING, callback.getInjectionSource());
+        assertNotSame(callback, ((Factory) second).getCallback(0));
+        assertNotSame(callback, ((Factory) withParameters).getCallback(0));
+        assertTrue(first.hashCode() != second.hashCode());
+    }
+}
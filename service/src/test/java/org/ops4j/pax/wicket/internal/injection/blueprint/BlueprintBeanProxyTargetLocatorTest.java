@@ -0,0 +1,94 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection.blueprint;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.wicket.api.PaxWicketBean;
+import org.ops4j.pax.wicket.internal.injection.ContainerHandles;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.blueprint.container.BlueprintContainer;
+
+public class BlueprintBeanProxyTargetLocatorTest {
+
+    private BundleContext bundleContext;
+    private BlueprintContainer container;
+    private Object bean;
+
+    @Before
+    public void setup() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(11L);
+        when(bundle.getSymbolicName()).thenReturn("test.bundle");
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        ServiceReference reference = mock(ServiceReference.class);
+        container = mock(BlueprintContainer.class);
+        bean = new Object();
+        when(container.getComponentIds()).thenReturn(Collections.singleton("bean"));
+        when(container.getComponentInstance("bean")).thenReturn(bean);
+        when(bundleContext.getServiceReferences(anyString(), anyString())).thenReturn(
+            new ServiceReference[]{ reference });
+        when(bundleContext.getService(reference)).thenReturn(container);
+    }
+
+    @After
+    public void tearDown() {
+        ContainerHandles.closeAll();
+    }
+
+    @Test
+    public void locateProxyTarget_shouldInstantiateBeanOncePerLookup() {
+        BlueprintBeanProxyTargetLocator locator = createLocator("bean");
+
+        assertSame(bean, locator.locateProxyTarget());
+        assertSame(bean, locator.locateProxyTarget());
+
+        verify(container, times(2)).getComponentInstance("bean");
+        verify(container, times(1)).getComponentIds();
+    }
+
+    @Test
+    public void locateProxyTarget_shouldNotInstantiateUnknownBean() {
+        try {
+            createLocator("unknown").locateProxyTarget();
+            fail("unknown bean must not be located");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        verify(container, never()).getComponentInstance(anyString());
+    }
+
+    private BlueprintBeanProxyTargetLocator createLocator(String beanName) {
+        PaxWicketBean annotation = mock(PaxWicketBean.class);
+        when(annotation.name()).thenReturn(beanName);
+        return new BlueprintBeanProxyTargetLocator(bundleContext, annotation, Object.class, getClass(), null);
+    }
+}
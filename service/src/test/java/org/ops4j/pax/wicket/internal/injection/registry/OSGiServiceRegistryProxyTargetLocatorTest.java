@@ -0,0 +1,90 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection.registry;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.ops4j.pax.wicket.api.PaxWicketBean;
+import org.ops4j.pax.wicket.util.proxy.IProxyTargetLocator.ReleasableProxyTarget;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+public class OSGiServiceRegistryProxyTargetLocatorTest {
+
+    private BundleContext bundleContext;
+    private ServiceReference reference;
+    private Runnable service;
+    private PaxWicketBean annotation;
+
+    @Before
+    public void setup() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(7L);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        when(bundleContext.getProperty(Constants.FRAMEWORK_VERSION)).thenReturn("1.5.0");
+        when(bundleContext.createFilter(anyString())).thenAnswer(new Answer<Filter>() {
+            public Filter answer(InvocationOnMock invocation) throws Throwable {
+                return FrameworkUtil.createFilter((String) invocation.getArguments()[0]);
+            }
+        });
+        reference = mock(ServiceReference.class);
+        service = mock(Runnable.class);
+        when(bundleContext.getAllServiceReferences(anyString(), anyString())).thenReturn(
+            new ServiceReference[]{ reference });
+        when(bundleContext.getService(reference)).thenReturn(service);
+        annotation = mock(PaxWicketBean.class);
+        when(annotation.name()).thenReturn("");
+    }
+
+    @After
+    public void tearDown() {
+        StickyServiceTrackers.closeAll();
+    }
+
+    @Test
+    public void locateProxyTarget_shouldShareTrackerAndKeepService() throws Exception {
+        OSGiServiceRegistryProxyTargetLocator first =
+            new OSGiServiceRegistryProxyTargetLocator(bundleContext, annotation, Runnable.class, getClass(), true);
+        OSGiServiceRegistryProxyTargetLocator second =
+            new OSGiServiceRegistryProxyTargetLocator(bundleContext, annotation, Runnable.class, getClass(), true);
+
+        ReleasableProxyTarget target = first.locateProxyTarget();
+        assertSame(service, target.getTarget());
+        assertSame(target, target.releaseTarget());
+        assertSame(service, target.getTarget());
+        assertSame(service, second.locateProxyTarget().getTarget());
+
+        verify(bundleContext, times(1)).addServiceListener(any(ServiceListener.class), anyString());
+        verify(bundleContext, times(1)).getService(reference);
+    }
+}
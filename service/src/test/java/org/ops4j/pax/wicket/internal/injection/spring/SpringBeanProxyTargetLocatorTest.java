@@ -0,0 +1,121 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection.spring;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.wicket.api.PaxWicketBean;
+import org.ops4j.pax.wicket.internal.injection.ContainerHandles;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+public class SpringBeanProxyTargetLocatorTest {
+
+    private BundleContext bundleContext;
+    private ServiceReference reference;
+    private ApplicationContext container;
+    private Runnable bean;
+
+    @Before
+    public void setup() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(11L);
+        when(bundle.getSymbolicName()).thenReturn("test.bundle");
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        reference = mock(ServiceReference.class);
+        container = mock(ApplicationContext.class);
+        ConfigurableListableBeanFactory beanFactory = mock(ConfigurableListableBeanFactory.class);
+        when(container.getAutowireCapableBeanFactory()).thenReturn(beanFactory);
+        bean = mock(Runnable.class);
+        when(container.getBeanNamesForType(Runnable.class)).thenReturn(new String[]{ "bean" });
+        when(container.getBeanNamesForType(Object.class)).thenReturn(new String[]{ "bean", "other" });
+        when(container.getBean("bean", Runnable.class)).thenReturn(bean);
+        when(bundleContext.getServiceReferences(anyString(), anyString())).thenReturn(
+            new ServiceReference[]{ reference });
+        when(bundleContext.getService(reference)).thenReturn(container);
+    }
+
+    @After
+    public void tearDown() {
+        ContainerHandles.closeAll();
+    }
+
+    @Test
+    public void locateProxyTarget_shouldResolveBeanNameOfTypeOnce() {
+        SpringBeanProxyTargetLocator locator = createLocator(Runnable.class);
+
+        assertSame(bean, locator.locateProxyTarget());
+        assertSame(bean, locator.locateProxyTarget());
+
+        verify(container, times(2)).getBean("bean", Runnable.class);
+        verify(container, times(1)).getBeanNamesForType(Runnable.class);
+    }
+
+    @Test
+    public void locateProxyTarget_shouldNotInstantiateAmbiguousType() {
+        try {
+            createLocator(Object.class).locateProxyTarget();
+            fail("ambiguous bean type must not be located");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        verify(container, never()).getBean(anyString(), any(Class.class));
+    }
+
+    @Test
+    public void locateProxyTarget_shouldIgnoreBeansWhichAreNoAutowireCandidates() {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBeanDefinition("candidate", new RootBeanDefinition(Thread.class));
+        RootBeanDefinition noCandidate = new RootBeanDefinition(Thread.class);
+        noCandidate.setAutowireCandidate(false);
+        context.registerBeanDefinition("noCandidate", noCandidate);
+        context.refresh();
+        when(bundleContext.getService(reference)).thenReturn(context);
+
+        assertSame(context.getBean("candidate"), createLocator(Runnable.class).locateProxyTarget());
+    }
+
+    @Test
+    public void locateProxyTarget_shouldLookUpAmbiguousTypeByTypeIfCandidatesAreUnknown() {
+        when(container.getAutowireCapableBeanFactory()).thenReturn(null);
+        when(container.getBean(Object.class)).thenReturn(bean);
+
+        assertSame(bean, createLocator(Object.class).locateProxyTarget());
+    }
+
+    private SpringBeanProxyTargetLocator createLocator(Class<?> beanType) {
+        PaxWicketBean annotation = mock(PaxWicketBean.class);
+        when(annotation.name()).thenReturn("");
+        return new SpringBeanProxyTargetLocator(bundleContext, annotation, beanType, getClass(), null);
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedDataStoreTest {
+
+    private File folder;
+    private MappedDataStore store;
+
+    @Before
+    public void setup() throws Exception {
+        folder = File.createTempFile("mapped-data-store", "");
+        folder.delete();
+        store = new MappedDataStore(folder, 1000, 10000);
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+        folder.delete();
+    }
+
+    @Test
+    public void storeData_shouldReplaceAndRemovePages() {
+        store.storeData("session", 1, page(1, 100));
+        store.storeData("session", 2, page(2, 100));
+        store.storeData("session", 1, page(3, 50));
+
+        assertArrayEquals(page(3, 50), store.getData("session", 1));
+        assertArrayEquals(page(2, 100), store.getData("session", 2));
+        assertNull(store.getData("other", 1));
+
+        store.removeData("session", 2);
+        assertNull(store.getData("session", 2));
+        store.removeData("session");
+        assertNull(store.getData("session", 1));
+    }
+
+    @Test
+    public void storeData_shouldCompactSparseSegments() {
+        for (int round = 0; round < 20; round++) {
+            for (int id = 0; id < 9; id++) {
+                store.storeData("session-" + round, id, page(round + id, 100));
+            }
+            if (round > 0) {
+                // keep a single page of the previous session
+                for (int id = 1; id < 9; id++) {
+                    store.removeData("session-" + (round - 1), id);
+                }
+            }
+        }
+        // 18 segments are written in total, compaction keeps each of them at least a quarter full
+        assertTrue("segments are compacted and reused", store.getSegmentCount() < 12);
+        for (int round = 0; round < 19; round++) {
+            assertArrayEquals(page(round, 100), store.getData("session-" + round, 0));
+        }
+        assertArrayEquals(page(27, 100), store.getData("session-19", 8));
+    }
+
+    @Test
+    public void storeData_shouldEvictOldestPagesOfSession() {
+        for (int id = 0; id < 12; id++) {
+            store.storeData("session", id, page(id, 1000));
+        }
+        assertNull(store.getData("session", 0));
+        assertNull(store.getData("session", 1));
+        assertArrayEquals(page(2, 1000), store.getData("session", 2));
+        assertArrayEquals(page(11, 1000), store.getData("session", 11));
+    }
+
+    @Test
+    public void storeData_shouldStoreOversizedPages() {
+        store.storeData("session", 1, page(1, 2500));
+        assertArrayEquals(page(1, 2500), store.getData("session", 1));
+        store.removeData("session", 1);
+        store.storeData("session", 2, page(2, 1800));
+
+        // the segment of the removed page is reused
+        assertEquals(1, store.getSegmentCount());
+        assertArrayEquals(page(2, 1800), store.getData("session", 2));
+    }
+
+    @Test
+    public void storeData_shouldKeepPagesOfConcurrentSessions() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int thread = 0; thread < 4; thread++) {
+            final String sessionId = "session-" + thread;
+            results.add(executor.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    for (int round = 0; round < 200; round++) {
+                        int id = round % 5;
+                        store.storeData(sessionId, id, page(round, 100 + id * 10));
+                        if (!Arrays.equals(page(round, 100 + id * 10), store.getData(sessionId, id))) {
+                            return false;
+                        }
+                        if (round % 7 == 0) {
+                            store.removeData(sessionId, (id + 1) % 5);
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+        executor.shutdown();
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        for (int thread = 0; thread < 4; thread++) {
+            // round 199 stored page 4 last, it has not been removed since
+            assertArrayEquals(page(199, 140), store.getData("session-" + thread, 4));
+        }
+    }
+
+    private static byte[] page(int seed, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) seed);
+        data[0] = (byte) length;
+        return data;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.wicket.pageStore.IDataStore;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindDataStoreTest {
+
+    private MapDataStore delegate;
+
+    @Before
+    public void setup() {
+        delegate = new MapDataStore();
+    }
+
+    @Test
+    public void getData_shouldServeQueuedPagesAndWriteLatestVersion() {
+        WriteBehindDataStore store = new WriteBehindDataStore(delegate, "test", 10, 4, 100, false);
+        store.storeData("session", 1, new byte[]{ 1 });
+        store.storeData("session", 2, new byte[]{ 2 });
+        store.storeData("session", 1, new byte[]{ 3 });
+
+        assertArrayEquals(new byte[]{ 3 }, store.getData("session", 1));
+        assertArrayEquals(new byte[]{ 2 }, store.getData("session", 2));
+        assertNull(delegate.getData("session", 1));
+
+        store.writeQueuedPages();
+        assertArrayEquals(new byte[]{ 3 }, delegate.getData("session", 1));
+        assertArrayEquals(new byte[]{ 2 }, delegate.getData("session", 2));
+        assertEquals(2, delegate.writes.get());
+        assertEquals(0, store.getPendingCount());
+    }
+
+    @Test
+    public void removeData_shouldDropQueuedPages() {
+        WriteBehindDataStore store = new WriteBehindDataStore(delegate, "test", 10, 4, 100, false);
+        store.storeData("session", 1, new byte[]{ 1 });
+        store.storeData("session", 2, new byte[]{ 2 });
+        store.storeData("other", 1, new byte[]{ 3 });
+
+        store.removeData("session", 1);
+        store.removeData("session");
+        assertNull(store.getData("session", 1));
+        assertNull(store.getData("session", 2));
+
+        store.writeQueuedPages();
+        assertNull(delegate.getData("session", 2));
+        assertArrayEquals(new byte[]{ 3 }, delegate.getData("other", 1));
+    }
+
+    @Test
+    public void storeData_shouldWriteSynchronouslyIfQueueIsFull() {
+        WriteBehindDataStore store = new WriteBehindDataStore(delegate, "test", 1, 4, 10, false);
+        store.storeData("session", 1, new byte[]{ 1 });
+        store.storeData("session", 2, new byte[]{ 2 });
+
+        assertNull(delegate.getData("session", 1));
+        assertArrayEquals(new byte[]{ 2 }, delegate.getData("session", 2));
+    }
+
+    @Test
+    public void storeData_shouldReplaceQueuedPageWithoutTakingSlot() {
+        WriteBehindDataStore store = new WriteBehindDataStore(delegate, "test", 1, 4, 10, false);
+        for (byte version = 0; version < 5; version++) {
+            store.storeData("session", 1, new byte[]{ version });
+        }
+
+        assertEquals(0, delegate.writes.get());
+        store.writeQueuedPages();
+        assertArrayEquals(new byte[]{ 4 }, delegate.getData("session", 1));
+        assertEquals(1, delegate.writes.get());
+    }
+
+    @Test
+    public void removeData_shouldFreeQueueSlot() {
+        WriteBehindDataStore store = new WriteBehindDataStore(delegate, "test", 1, 4, 10, false);
+        store.storeData("session", 1, new byte[]{ 1 });
+        store.removeData("session", 1);
+        store.storeData("session", 2, new byte[]{ 2 });
+
+        assertEquals(0, delegate.writes.get());
+        assertEquals(1, store.getPendingCount());
+    }
+
+    @Test
+    public void destroy_shouldWriteQueuedPages() {
+        WriteBehindDataStore store = new WriteBehindDataStore(delegate, "test", 10, 4, 100);
+        store.storeData("session", 1, new byte[]{ 1 });
+
+        store.destroy();
+        assertArrayEquals(new byte[]{ 1 }, delegate.getData("session", 1));
+        assertEquals(0, store.getPendingCount());
+    }
+
+    private static final class MapDataStore implements IDataStore {
+
+        private final Map<String, byte[]> data = new ConcurrentHashMap<String, byte[]>();
+        private final AtomicInteger writes = new AtomicInteger();
+
+        public byte[] getData(String sessionId, int id) {
+            return data.get(sessionId + ":" + id);
+        }
+
+        public void removeData(String sessionId, int id) {
+            data.remove(sessionId + ":" + id);
+        }
+
+        public void removeData(String sessionId) {
+            for (String key : data.keySet()) {
+                if (key.startsWith(sessionId + ":")) {
+                    data.remove(key);
+                }
+            }
+        }
+
+        public void storeData(String sessionId, int id, byte[] page) {
+            writes.incrementAndGet();
+            data.put(sessionId + ":" + id, page);
+        }
+
+        public void destroy() {
+        }
+
+        public boolean isReplicated() {
+            return false;
+        }
+
+        public boolean canBeAsynchronous() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+import org.ops4j.pax.wicket.internal.Activator;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+public class BundleClassIndexTest {
+
+    private File indexFolder;
+
+    @After
+    public void tearDown() throws Exception {
+        BundleClassIndex.clear();
+        setPaxWicketContext(null);
+        if (indexFolder != null) {
+            for (File file : indexFolder.listFiles()) {
+                file.delete();
+            }
+            indexFolder.delete();
+        }
+    }
+
+    @Test
+    public void getClassEntries_shouldScanBundleRevisionOnce() throws Exception {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(42L);
+        when(bundle.getLastModified()).thenReturn(1L);
+        when(bundle.findEntries("/", "*.class", true)).thenReturn(
+            Collections.enumeration(Arrays.asList(new URL("file:/org/example/Page.class"))));
+
+        assertEquals(Arrays.asList("org/example/Page"), BundleClassIndex.getClassEntries(bundle));
+        assertEquals(Arrays.asList("org/example/Page"), BundleClassIndex.getClassEntries(bundle));
+
+        verify(bundle, times(1)).findEntries("/", "*.class", true);
+    }
+
+    @Test
+    public void getClassEntries_shouldRescanUpdatedBundle() throws Exception {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(42L);
+        when(bundle.getLastModified()).thenReturn(1L, 2L);
+        when(bundle.findEntries("/", "*.class", true)).thenReturn(
+            Collections.enumeration(Arrays.asList(new URL("file:/org/example/Page.class"))),
+            Collections.enumeration(Arrays.asList(new URL("file:/org/example/Other.class"))));
+
+        BundleClassIndex.getClassEntries(bundle);
+
+        assertEquals(Arrays.asList("org/example/Other"), BundleClassIndex.getClassEntries(bundle));
+    }
+
+    @Test
+    public void getClassEntries_shouldRescanHostOnceFragmentIsAttached() throws Exception {
+        Bundle bundle = mockBundle(42L);
+        Bundle fragment = mockBundle(43L);
+        PackageAdmin packageAdmin = mockPaxWicketContext();
+        when(packageAdmin.getFragments(bundle)).thenReturn(null, new Bundle[]{ fragment });
+        when(bundle.findEntries("/", "*.class", true)).thenReturn(
+            Collections.enumeration(Arrays.asList(new URL("file:/org/example/Page.class"))),
+            Collections.enumeration(Arrays.asList(new URL("file:/org/example/Page.class"),
+                new URL("file:/org/example/FragmentPage.class"))));
+
+        BundleClassIndex.getClassEntries(bundle);
+
+        assertEquals(Arrays.asList("org/example/Page", "org/example/FragmentPage"),
+            BundleClassIndex.getClassEntries(bundle));
+        // the index of the host without fragment is superseded
+        assertEquals(Arrays.asList("42-1_43.1"), Arrays.asList(indexFolder.list()));
+    }
+
+    @Test
+    public void remove_shouldDeletePersistedIndex() throws Exception {
+        Bundle bundle = mockBundle(42L);
+        Bundle other = mockBundle(44L);
+        mockPaxWicketContext();
+        BundleClassIndex.getClassEntries(bundle);
+        BundleClassIndex.getClassEntries(other);
+        assertEquals(2, indexFolder.list().length);
+
+        BundleClassIndex.remove(bundle);
+
+        assertEquals(Arrays.asList("44-1"), Arrays.asList(indexFolder.list()));
+    }
+
+    @Test
+    public void removeUninstalled_shouldDeleteIndexesOfUnknownBundles() throws Exception {
+        Bundle bundle = mockBundle(42L);
+        Bundle uninstalled = mockBundle(44L);
+        mockPaxWicketContext();
+        BundleClassIndex.getClassEntries(bundle);
+        BundleClassIndex.getClassEntries(uninstalled);
+
+        BundleClassIndex.removeUninstalled(new Bundle[]{ bundle });
+
+        assertEquals(Arrays.asList("42-1"), Arrays.asList(indexFolder.list()));
+    }
+
+    private static Bundle mockBundle(long bundleId) {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        when(bundle.getLastModified()).thenReturn(1L);
+        return bundle;
+    }
+
+    private PackageAdmin mockPaxWicketContext() throws Exception {
+        indexFolder = File.createTempFile("class-index", "");
+        assertTrue(indexFolder.delete());
+        BundleContext paxWicketContext = mock(BundleContext.class);
+        when(paxWicketContext.getDataFile("class-index")).thenReturn(indexFolder);
+        ServiceReference reference = mock(ServiceReference.class);
+        PackageAdmin packageAdmin = mock(PackageAdmin.class);
+        when(paxWicketContext.getServiceReference(PackageAdmin.class.getName())).thenReturn(reference);
+        when(paxWicketContext.getService(reference)).thenReturn(packageAdmin);
+        setPaxWicketContext(paxWicketContext);
+        return packageAdmin;
+    }
+
+    private static void setPaxWicketContext(BundleContext paxWicketContext) throws Exception {
+        Field field = Activator.class.getDeclaredField("bundleContext");
+        field.setAccessible(true);
+        field.set(null, paxWicketContext);
+    }
+}
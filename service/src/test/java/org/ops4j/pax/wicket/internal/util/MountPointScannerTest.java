@@ -0,0 +1,100 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.wicket.markup.html.WebPage;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.ops4j.pax.wicket.api.PaxWicketMountPoint;
+import org.osgi.framework.Bundle;
+
+public class MountPointScannerTest {
+
+    @After
+    public void tearDown() {
+        BundleClassIndex.clear();
+    }
+
+    @Test
+    public void read_shouldReadNameSuperClassAndAnnotations() throws Exception {
+        ClassFileHeader header = ClassFileHeader.read(classFile(MountedPage.class));
+
+        assertEquals(MountedPage.class.getName(), header.getClassName());
+        assertEquals(BasePage.class.getName(), header.getSuperClassName());
+        assertTrue(header.isAnnotationPresent(PaxWicketMountPoint.class));
+        assertFalse(ClassFileHeader.read(classFile(BasePage.class)).isAnnotationPresent(PaxWicketMountPoint.class));
+    }
+
+    @Test
+    public void findMountPointCandidates_shouldOnlyReturnAnnotatedPagesWithoutLoadingClasses() throws Exception {
+        Bundle bundle = mockBundle(MountedPage.class, BasePage.class, MountedNonPage.class);
+
+        assertEquals(Arrays.asList(MountedPage.class.getName()), MountPointScanner.findMountPointCandidates(bundle));
+        verify(bundle, never()).loadClass(anyString());
+    }
+
+    private static Bundle mockBundle(Class<?>... classes) throws Exception {
+        Bundle bundle = mock(Bundle.class);
+        List<URL> entries = new ArrayList<URL>();
+        for (Class<?> clazz : classes) {
+            String path = clazz.getName().replace('.', '/');
+            entries.add(new URL("file:/" + path + ".class"));
+            when(bundle.getEntry(path + ".class")).thenReturn(classFile(clazz));
+        }
+        when(bundle.findEntries("/", "*.class", true)).thenReturn(Collections.enumeration(entries));
+        when(bundle.getResource(anyString())).thenAnswer(new Answer<URL>() {
+            public URL answer(InvocationOnMock invocation) throws Throwable {
+                return MountPointScannerTest.class.getClassLoader().getResource(
+                    (String) invocation.getArguments()[0]);
+            }
+        });
+        return bundle;
+    }
+
+    private static URL classFile(Class<?> clazz) {
+        return clazz.getResource("/" + clazz.getName().replace('.', '/') + ".class");
+    }
+
+    public static class BasePage extends WebPage {
+        private static final long serialVersionUID = 1L;
+    }
+
+    @PaxWicketMountPoint(mountPoint = "mounted")
+    public static class MountedPage extends BasePage {
+        private static final long serialVersionUID = 1L;
+    }
+
+    @PaxWicketMountPoint(mountPoint = "nopage")
+    public static class MountedNonPage {
+    }
+}
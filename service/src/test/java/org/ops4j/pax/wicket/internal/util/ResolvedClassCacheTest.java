@@ -0,0 +1,109 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.util;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+
+import org.apache.wicket.application.IClassResolver;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleReference;
+
+public class ResolvedClassCacheTest {
+
+    @After
+    public void tearDown() {
+        ResolvedClassCache.invalidateAll();
+    }
+
+    @Test
+    public void invalidate_shouldDropClassesOfStoppedBundleOnly() throws Exception {
+        Bundle bundle = mockBundle(42L);
+        Class<?> bundleClass = new BundleClassLoader(bundle).loadClass(Page.class.getName());
+        Class<?> bundleArrayClass = Array.newInstance(bundleClass, 0).getClass();
+        ResolvedClassCache cache = ResolvedClassCache.forResolver(mock(IClassResolver.class));
+        long generation = ResolvedClassCache.getGeneration();
+        cache.put("bundle", bundleClass, generation);
+        cache.put("bundleArray", bundleArrayClass, generation);
+        cache.put("other", Page.class, generation);
+
+        ResolvedClassCache.invalidate(mockBundle(43L));
+        assertSame(bundleClass, cache.get("bundle"));
+
+        ResolvedClassCache.invalidate(bundle);
+        assertNull(cache.get("bundle"));
+        assertNull(cache.get("bundleArray"));
+        assertSame(Page.class, cache.get("other"));
+    }
+
+    private static Bundle mockBundle(long bundleId) {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        return bundle;
+    }
+
+    public static class Page {
+    }
+
+    /**
+     * Loads {@link Page} itself, like the class loader of the given bundle.
+     */
+    private static final class BundleClassLoader extends ClassLoader implements BundleReference {
+
+        private final Bundle bundle;
+
+        private BundleClassLoader(Bundle bundle) {
+            super(ResolvedClassCacheTest.class.getClassLoader());
+            this.bundle = bundle;
+        }
+
+        public Bundle getBundle() {
+            return bundle;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(Page.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded != null) {
+                return loaded;
+            }
+            try {
+                InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+                    bytes.write(buffer, 0, read);
+                }
+                in.close();
+                return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
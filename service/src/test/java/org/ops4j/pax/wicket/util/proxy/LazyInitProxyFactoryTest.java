@@ -0,0 +1,195 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.util.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+public class LazyInitProxyFactoryTest {
+
+    @Test
+    public void createProxy_shouldReuseProxyClassOfInterface() throws Exception {
+        Object first = LazyInitProxyFactory.createProxy(Callable.class, new FixedLocator(new Constant("first")));
+        Object second = LazyInitProxyFactory.createProxy(Callable.class, new FixedLocator(new Constant("second")));
+
+        assertSame(first.getClass(), second.getClass());
+        assertEquals("first", ((Callable<?>) first).call());
+        assertEquals("second", ((Callable<?>) second).call());
+    }
+
+    @Test
+    public void createProxy_shouldReuseProxyClassOfClass() throws Exception {
+        Object first = LazyInitProxyFactory.createProxy(Constant.class, new FixedLocator(new Constant("first")));
+        Object second = LazyInitProxyFactory.createProxy(Constant.class, new FixedLocator(new Constant("second")));
+
+        assertSame(first.getClass(), second.getClass());
+        assertNotSame(first, second);
+        assertEquals("first", ((Constant) first).call());
+        assertEquals("second", ((Constant) second).call());
+        assertSame(FixedLocator.class, ((ILazyInitProxy) second).getObjectLocator().getClass());
+    }
+
+    @Test
+    public void createProxy_shouldAnswerObjectMethodsWithoutTarget() throws Exception {
+        Object jdkProxy = LazyInitProxyFactory.createProxy(Callable.class, new FixedLocator(null));
+        Object cglibProxy = LazyInitProxyFactory.createProxy(Constant.class, new FixedLocator(null));
+
+        for (Object proxy : new Object[]{ jdkProxy, cglibProxy }) {
+            assertEquals(proxy.hashCode(), proxy.hashCode());
+            assertFalse(proxy.equals(new Object()));
+            assertTrue(((ILazyInitProxy) proxy).getObjectLocator() instanceof FixedLocator);
+        }
+    }
+
+    @Test
+    public void createProxy_shouldAnswerSpecialMethodsWithoutLocatingTarget() throws Exception {
+        CountingLocator locator = new CountingLocator(new Constant("value"));
+        Object jdkProxy = LazyInitProxyFactory.createProxy(Callable.class, locator);
+        Object cglibProxy = LazyInitProxyFactory.createProxy(Constant.class, locator);
+
+        for (Object proxy : new Object[]{ jdkProxy, cglibProxy }) {
+            proxy.hashCode();
+            proxy.equals(proxy);
+            proxy.toString();
+            assertSame(locator, ((ILazyInitProxy) proxy).getObjectLocator());
+            assertTrue(((LazyInitProxyFactory.IWriteReplace) proxy).writeReplace()
+                instanceof LazyInitProxyFactory.ProxyReplacement);
+        }
+        assertEquals(0, locator.located);
+
+        assertEquals("value", ((Callable<?>) jdkProxy).call());
+        assertEquals("value", ((Constant) cglibProxy).call());
+        assertEquals(2, locator.located);
+    }
+
+    @Test
+    public void createProxy_shouldNotKeepClassLoaderOfUnusedProxyClass() throws Exception {
+        WeakReference<ClassLoader> classLoader = createProxyInSeparateClassLoader();
+
+        for (int i = 0; i < 50 && classLoader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertTrue("proxy class cache keeps the classloader", classLoader.get() == null);
+    }
+
+    private static WeakReference<ClassLoader> createProxyInSeparateClassLoader() throws Exception {
+        ClassLoader classLoader = new ChildFirstClassLoader(Constant.class.getName());
+        Class<?> type = classLoader.loadClass(Constant.class.getName());
+        Object proxy = LazyInitProxyFactory.createProxy(type, new FixedLocator(null));
+        assertSame(classLoader, proxy.getClass().getClassLoader());
+        return new WeakReference<ClassLoader>(classLoader);
+    }
+
+    /**
+     * Defines a copy of a single class, like a bundle which might be refreshed.
+     */
+    private static final class ChildFirstClassLoader extends ClassLoader {
+
+        private final String className;
+
+        private ChildFirstClassLoader(String className) {
+            super(LazyInitProxyFactoryTest.class.getClassLoader());
+            this.className = className;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(className)) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded != null) {
+                return loaded;
+            }
+            try {
+                InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+                    bytes.write(buffer, 0, read);
+                }
+                in.close();
+                return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+
+    public static class Constant implements Callable<String> {
+
+        private final String value;
+
+        public Constant() {
+            this(null);
+        }
+
+        public Constant(String value) {
+            this.value = value;
+        }
+
+        public String call() {
+            return value;
+        }
+    }
+
+    private static class CountingLocator extends FixedLocator {
+        private static final long serialVersionUID = 1L;
+
+        private int located;
+
+        public CountingLocator(Object target) {
+            super(target);
+        }
+
+        @Override
+        public Object locateProxyTarget() {
+            located++;
+            return super.locateProxyTarget();
+        }
+    }
+
+    private static class FixedLocator implements IProxyTargetLocator {
+        private static final long serialVersionUID = 1L;
+
+        private final Object target;
+
+        public FixedLocator(Object target) {
+            this.target = target;
+        }
+
+        public Object locateProxyTarget() {
+            return target;
+        }
+
+        public Class<?> getParent() {
+            return null;
+        }
+    }
+}
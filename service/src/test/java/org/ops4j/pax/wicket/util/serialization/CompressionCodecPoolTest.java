@@ -0,0 +1,67 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.util.serialization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressionCodecPoolTest {
+
+    private CompressionCodecPool pool;
+
+    @Before
+    public void setup() {
+        pool = new CompressionCodecPool(6);
+    }
+
+    @After
+    public void tearDown() {
+        pool.dispose();
+    }
+
+    @Test
+    public void compress_shouldRoundTripCompressibleData() throws Exception {
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 17);
+        }
+        for (int i = 0; i < 3; i++) {
+            byte[] compressed = pool.compress(data);
+            assertTrue(CompressionCodecPool.isCompressed(compressed));
+            assertTrue(compressed.length < data.length / 10);
+            assertArrayEquals(data, pool.decompress(compressed));
+        }
+    }
+
+    @Test
+    public void compress_shouldKeepIncompressibleData() {
+        byte[] data = new byte[1000];
+        new Random(42).nextBytes(data);
+        data[0] = (byte) 0xAC;
+        data[1] = (byte) 0xED;
+
+        assertSame(data, pool.compress(data));
+        assertFalse(CompressionCodecPool.isCompressed(data));
+    }
+}
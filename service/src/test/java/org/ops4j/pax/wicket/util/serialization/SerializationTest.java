@@ -17,20 +17,36 @@ package org.ops4j.pax.wicket.util.serialization;
 
 import org.apache.wicket.application.IClassResolver;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.ops4j.pax.wicket.internal.EnumerationAdapter;
 import org.ops4j.pax.wicket.internal.NotImplementedException;
+import org.ops4j.pax.wicket.internal.util.ResolvedClassCache;
+import org.osgi.framework.Bundle;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InvalidClassException;
 import java.io.Serializable;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * @author edward.yakop@gmail.com
@@ -81,6 +97,92 @@ public final class SerializationTest {
         testSerializeObject(someObject, resolver);
     }
 
+    @Test
+    public final void readObject_shouldResolveClassesOncePerApplication() throws Throwable {
+        IClassResolver resolver = mock(IClassResolver.class);
+        when(resolver.resolveClass(SomeObject.class.getName())).thenAnswer(new Answer<Class<?>>() {
+            public Class<?> answer(InvocationOnMock invocation) throws Throwable {
+                return SomeObject.class;
+            }
+        });
+        SomeObject someObject = createSomeObject();
+
+        testSerializeObject(someObject, resolver);
+        testSerializeObject(someObject, resolver);
+        verify(resolver, times(1)).resolveClass(SomeObject.class.getName());
+
+        // the class has not been loaded by the stopped bundle
+        ResolvedClassCache.invalidate(mock(Bundle.class));
+        testSerializeObject(someObject, resolver);
+        verify(resolver, times(1)).resolveClass(SomeObject.class.getName());
+
+        ResolvedClassCache.invalidateAll();
+        testSerializeObject(someObject, resolver);
+        verify(resolver, times(2)).resolveClass(SomeObject.class.getName());
+    }
+
+    @Test
+    public final void compactClassDescriptors_shouldRoundTripSmallerStreams() throws Throwable {
+        IClassResolver resolver = mock(IClassResolver.class);
+        when(resolver.resolveClass(anyString())).thenThrow(new ClassNotFoundException());
+        ArrayList<Object> graph = new ArrayList<Object>();
+        graph.add(createSomeObject());
+        graph.add(new SomeObject[]{ createSomeObject(), createSomeObject() });
+        graph.add(new int[]{ 1, 2, 3 });
+        graph.add(TimeUnit.SECONDS);
+
+        byte[] javaBytes = serialize(graph, false);
+        byte[] compactBytes = serialize(graph, true);
+        assertTrue(compactBytes.length < javaBytes.length);
+
+        Object restored = new PaxWicketObjectInputStream(new ByteArrayInputStream(compactBytes), resolver).readObject();
+        List<?> restoredGraph = (List<?>) restored;
+        assertEquals(graph.get(0), restoredGraph.get(0));
+        assertTrue(Arrays.equals((Object[]) graph.get(1), (Object[]) restoredGraph.get(1)));
+        assertTrue(Arrays.equals((int[]) graph.get(2), (int[]) restoredGraph.get(2)));
+        assertEquals(TimeUnit.SECONDS, restoredGraph.get(3));
+    }
+
+    @Test
+    public final void compactClassDescriptors_shouldRejectChangedFieldLayout() throws Throwable {
+        IClassResolver resolver = mock(IClassResolver.class);
+        when(resolver.resolveClass(anyString())).thenThrow(new ClassNotFoundException());
+        LayoutA layout = new LayoutA();
+        layout.number = 42;
+        layout.text = "pax-wicket";
+        byte[] bytes = serialize(layout, true);
+
+        // a class of the same name length, serial version uid and fields reads like an updated LayoutA
+        LayoutC sameLayout =
+            (LayoutC) new PaxWicketObjectInputStream(new ByteArrayInputStream(renameClass(bytes, "LayoutA",
+                "LayoutC")), resolver).readObject();
+        assertEquals(42, sameLayout.number);
+        assertEquals("pax-wicket", sameLayout.text);
+
+        // same serial version uid, but the fields are different
+        try {
+            new PaxWicketObjectInputStream(new ByteArrayInputStream(renameClass(bytes, "LayoutA", "LayoutB")),
+                resolver).readObject();
+            fail("changed field layout not detected");
+        } catch (InvalidClassException e) {
+            assertTrue(e.getMessage().contains("LayoutB"));
+        }
+    }
+
+    private static byte[] renameClass(byte[] bytes, String from, String to) throws Exception {
+        // names of the same length, so the length prefix of the class name stays valid
+        String content = new String(bytes, "ISO-8859-1");
+        return content.replace("$" + from, "$" + to).getBytes("ISO-8859-1");
+    }
+
+    private static byte[] serialize(Object object, boolean compactClassDescriptors) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PaxWicketObjectOutputStream out = new PaxWicketObjectOutputStream(bytes, compactClassDescriptors);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
     private SomeObject createSomeObject() {
         SomeObject someObject = new SomeObject();
         Random random = new Random(System.currentTimeMillis());
@@ -110,6 +212,27 @@ public final class SerializationTest {
         assertEquals(objectToSerialize, object);
     }
 
+    public static class LayoutA implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int number;
+        private String text;
+    }
+
+    public static class LayoutB implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private long number;
+        private String text;
+    }
+
+    public static class LayoutC implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int number;
+        private String text;
+    }
+
     public static class SomeObject
             implements Serializable {
         private static final long serialVersionUID = 1L;